@@ -4,47 +4,187 @@ import musicEditor.controller.IMusicEditorController;
 import musicEditor.controller.MusicEditorController;
 import musicEditor.model.IMusicEditorModel;
 import musicEditor.model.MusicEditorModel;
+import musicEditor.music.ColumnarComposition;
+import musicEditor.music.MusicComposition;
+import musicEditor.music.Pitch;
+import musicEditor.music.Repetition;
+import musicEditor.music.Tone;
+import musicEditor.util.BinaryMusicReader;
+import musicEditor.util.BinaryMusicWriter;
+import musicEditor.util.CompositionBuilder;
+import musicEditor.util.MidiReader;
+import musicEditor.util.MidiWriter;
+import musicEditor.util.MusicLoader;
 import musicEditor.util.MusicReader;
+import musicEditor.util.NoteBuffer;
+import musicEditor.util.WavWriter;
 import musicEditor.view.MusicEditorView;
 
 import javax.sound.midi.InvalidMidiDataException;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import javax.sound.midi.MidiUnavailableException;
+import javax.swing.*;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 /**
  * Application that runs the music editor.
  */
 public class MusicEditor {
+  // the synthesizer WavWriter renders with is only reachable through the JDK's internal classes
+  private static final String RENDER_FLAG =
+      "--add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED";
+  // the options that read one file and write another without opening the editor
+  private static final String[] FILE_OPTIONS = {"--render-wav", "--export-binary", "--export-midi"};
+
   /**
-   * Main method for application running.
+   * Main method for application running. Passing {@code --columnar} keeps the tones in a
+   * {@link ColumnarComposition} instead of the default maps of Tone objects. Passing
+   * {@code --render-wav <input> <output.wav>} renders the input file to a WAV file without
+   * opening the editor, with one synthesizer for each timbre if {@code --parallel} is also given.
+   * Rendering needs the JVM to be run with {@value #RENDER_FLAG}. Passing
+   * {@code --export-binary <input> <output>} writes the input file in the binary music format,
+   * which opens much faster than text, and {@code --export-midi <input> <output.mid>} writes it
+   * as a standard MIDI file.
    *
    * @param args The arguments
    * @throws IOException Exception
    * @throws InvalidMidiDataException Exception
+   * @throws MidiUnavailableException if a WAV file is rendered and no synthesizer can be opened
    */
-  public static void main(String[] args) throws IOException, InvalidMidiDataException {
-    MusicEditorModel.Builder builder = new MusicEditorModel.Builder();
-    Readable fileReader = null;
+  public static void main(String[] args)
+      throws IOException, InvalidMidiDataException, MidiUnavailableException {
+    List<String> arguments = Arrays.asList(args);
+    boolean columnar = arguments.contains("--columnar");
+    for (String option : FILE_OPTIONS) {
+      int index = arguments.indexOf(option);
+      if (index != -1) {
+        if (index + 2 >= args.length) {
+          System.err.println("usage: MusicEditor --render-wav <input> <output.wav> [--parallel]"
+              + " [--columnar]");
+          System.err.println("       MusicEditor --export-binary <input> <output> [--columnar]");
+          System.err.println("       MusicEditor --export-midi <input> <output.mid> [--columnar]");
+          System.err.println("--render-wav needs the JVM to be run with " + RENDER_FLAG);
+          System.exit(2);
+        }
+        Score score = read(Paths.get(args[index + 1]), new Score(columnar));
+        write(option, score, Paths.get(args[index + 2]), arguments.contains("--parallel"));
+        return;
+      }
+    }
+    MusicEditorModel.Builder builder = columnar
+        ? new MusicEditorModel.Builder(new ColumnarComposition())
+        : new MusicEditorModel.Builder();
+    Path file = null;
     Scanner in = new Scanner(System.in);
     String fileName;
 
-    while (fileReader == null) {
+    while (file == null) {
       System.out.print("Input a file: ");
-      try {
-        fileName = in.next();
-        fileReader = new FileReader(new File(fileName));
-      } catch (FileNotFoundException e) {
-        e.printStackTrace();
+      fileName = in.next();
+      file = Paths.get(fileName);
+      if (!Files.isReadable(file)) {
+        System.err.println(fileName + " cannot be read");
+        file = null;
       }
     }
-    IMusicEditorModel model = MusicReader.parseFile(fileReader, builder);
+    // binary and MIDI files load quickly enough to read whole, while the editor opens right away
+    // for text files and shows the notes as they are loaded
+    String name = file.getFileName().toString().toLowerCase();
+    boolean midi = name.endsWith(".mid") || name.endsWith(".midi");
+    boolean binary = !midi && BinaryMusicReader.isBinary(file);
+    IMusicEditorModel model = midi || binary ? read(file, builder) : builder.build();
 
     IMusicEditorController controller = new MusicEditorController(model);
 
     controller.setView(
         new MusicEditorView(model.getComposition(), model.getTracker(), model.getPlayer()));
+    if (!midi && !binary) {
+      controller.load(new MusicLoader(file, builder, SwingUtilities::invokeLater));
+    }
+  }
+
+  /**
+   * Writes the given score to the given file in the format of the given option.
+   */
+  private static void write(String option, Score score, Path file, boolean parallel)
+      throws IOException, MidiUnavailableException {
+    if (option.equals("--render-wav")) {
+      WavWriter.write(score.composition, score.tempo, file, parallel);
+    }
+    else if (option.equals("--export-binary")) {
+      BinaryMusicWriter.write(score.composition, score.tempo, file);
+    }
+    else {
+      MidiWriter.write(score.composition, score.tempo, file);
+    }
+  }
+
+  /**
+   * Reads the whole of the given MIDI, binary, or text music file into the given builder.
+   */
+  private static <T> T read(Path file, CompositionBuilder<T> builder)
+      throws IOException, InvalidMidiDataException {
+    String name = file.getFileName().toString().toLowerCase();
+    if (name.endsWith(".mid") || name.endsWith(".midi")) {
+      return MidiReader.parseFile(file, builder);
+    }
+    if (BinaryMusicReader.isBinary(file)) {
+      return BinaryMusicReader.parseFile(file, builder);
+    }
+    return MusicReader.parseFile(file, builder);
+  }
+
+  /**
+   * Builds a composition and keeps its tempo for the options that only write files, without
+   * the player, and so the sequencer, that a {@link MusicEditorModel.Builder} opens.
+   */
+  private static final class Score implements CompositionBuilder<Score> {
+    private final MusicComposition composition;
+    private int tempo;
+
+    private Score(boolean columnar) {
+      this.composition = columnar ? new ColumnarComposition() : new MusicComposition();
+      this.tempo = 1;
+    }
+
+    @Override
+    public Score build() {
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<Score> setTempo(int tempo) {
+      this.tempo = tempo;
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<Score> addNote(int start, int end, int timbre, int midiPitch,
+                                             int volume) {
+      this.composition.addTone(new Tone(Pitch.of(midiPitch), start, end - start, volume, timbre));
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<Score> addNotes(NoteBuffer notes) {
+      this.composition.addTones(notes);
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<Score> addRepetition(int beat, int rewind, int loops) {
+      return this.addRepetition(beat, rewind, loops, 0);
+    }
+
+    @Override
+    public CompositionBuilder<Score> addRepetition(int beat, int rewind, int loops, int ending) {
+      this.composition.addFeature(new Repetition(rewind, loops == 0 ? 1 : loops, ending), beat);
+      return this;
+    }
   }
 }
@@ -1,5 +1,6 @@
 package musicEditor.controller;
 
+import musicEditor.util.MusicLoader;
 import musicEditor.view.IMusicEditorView;
 
 import javax.sound.midi.InvalidMidiDataException;
@@ -15,4 +16,11 @@ public interface IMusicEditorController {
    * @throws InvalidMidiDataException If there is any invalid MIDI data
    */
   void setView(IMusicEditorView view) throws InvalidMidiDataException;
+
+  /**
+   * Starts the given loader and shows its progress in the view as the notes arrive. The view
+   * must already be set.
+   * @param loader the loader adding notes to this controller's model
+   */
+  void load(MusicLoader loader);
 }
@@ -1,14 +1,18 @@
 package musicEditor.controller;
 
 import musicEditor.model.IMusicEditorModel;
+import musicEditor.util.LoadListener;
+import musicEditor.util.MusicLoader;
 import musicEditor.view.IMusicEditorView;
 
 import javax.sound.midi.InvalidMidiDataException;
+import javax.swing.SwingUtilities;
 import java.awt.Point;
 import java.awt.event.KeyEvent;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Controller for the Music Editor program. Allows key inputs to navigate the visual views as well
@@ -42,6 +46,62 @@ public class MusicEditorController implements IMusicEditorController {
     view.initialize();
   }
 
+  /**
+   * Starts the given loader and shows its progress in the view as the notes arrive. Progress
+   * from the loading thread is passed on to the event dispatch thread, and batches that arrive
+   * while an update is still waiting to run share that update, which redraws the beats spanned
+   * by all of them.
+   * @param loader the loader adding notes to this controller's model
+   */
+  @Override
+  public void load(MusicLoader loader) {
+    IMusicEditorView view = this.view;
+    AtomicBoolean updatePending = new AtomicBoolean(false);
+    double[] latest = new double[1];
+    // the beats spanned by the batches not yet shown, empty while from is past to
+    int[] span = {Integer.MAX_VALUE, 0};
+    loader.addLoadListener(new LoadListener() {
+      @Override
+      public void loadProgress(int notes, double progress, int fromBeat, int toBeat) {
+        synchronized (latest) {
+          latest[0] = progress;
+          if (toBeat > fromBeat) {
+            span[0] = Math.min(span[0], fromBeat);
+            span[1] = Math.max(span[1], toBeat);
+          }
+        }
+        if (updatePending.compareAndSet(false, true)) {
+          SwingUtilities.invokeLater(() -> {
+            updatePending.set(false);
+            double current;
+            int from;
+            int to;
+            synchronized (latest) {
+              current = latest[0];
+              from = span[0];
+              to = span[1];
+              span[0] = Integer.MAX_VALUE;
+              span[1] = 0;
+            }
+            view.refresh(from, to);
+            view.setLoadProgress(current);
+          });
+        }
+      }
+
+      @Override
+      public void loadComplete(int notes) {
+        SwingUtilities.invokeLater(() -> view.setLoadProgress(1));
+      }
+
+      @Override
+      public void loadFailed(Exception e) {
+        SwingUtilities.invokeLater(() -> view.showLoadError(e.getMessage()));
+      }
+    });
+    loader.start();
+  }
+
   /**
    * Creates and sets a keyboard listener for the view
    * In effect it creates snippets of code as Runnable object, one for each time a key
@@ -91,6 +151,13 @@ public class MusicEditorController implements IMusicEditorController {
       }
     });
 
+    keyPresses.put(KeyEvent.VK_EQUALS, () -> {
+      this.view.zoomIn();
+    });
+    keyPresses.put(KeyEvent.VK_MINUS, () -> {
+      this.view.zoomOut();
+    });
+
     KeyboardListener listener = new KeyboardListener();
     listener.setKeyTypedMap(keyTypes);
     listener.setKeyPressedMap(keyPresses);
@@ -127,10 +194,6 @@ public class MusicEditorController implements IMusicEditorController {
   private void configureMetaEventsListener() {
     Map<String, Runnable> metaRead = new HashMap<>();
 
-    metaRead.put("beat", () -> {
-      this.model.setBeat(this.model.getBeat() + 1);
-      this.view.update();
-    });
     metaRead.put("end", () -> {
       this.model.pause();
     });
@@ -2,20 +2,65 @@ package musicEditor.gui;
 
 import musicEditor.music.*;
 
-import javax.sound.midi.Sequencer;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Represents the panel that will display all Tones within the given MusicSheet.
+ * <p>The sheet is drawn into square off-screen tiles that are kept between repaints, so a repaint
+ * only copies tiles and draws the playhead over them. At most {@link #MAX_TILES} tiles are kept,
+ * and the least recently used are let go first. Before each repaint the snapshot the tiles were
+ * drawn from is compared with the composition's, and only the tiles under tones that were added
+ * or removed are drawn again. While the playhead moves, the tiles just ahead of it are drawn on
+ * a background thread before they are scrolled into view.</p>
+ * <p>The sheet is drawn at the zoom level of its {@link SheetLayout}. At the far levels, where a
+ * pixel covers several beats, each pitch is drawn from its {@link ToneDensity} instead of tone by
+ * tone, shaded by how much of each pixel's beats are sounding.</p>
  */
 public class EditorPanel extends JPanel {
-  private final int CELL_WIDTH = 20;
-  private final int CELL_HEIGHT = 20;
+  /**
+   * The width and height of a tile in pixels.
+   */
+  public static final int TILE_SIZE = 256;
+  /**
+   * The most tiles kept at once.
+   */
+  public static final int MAX_TILES = 96;
+
+  // shades from sparse to full for drawing densities, shared with the minimap
+  static final Color[] DENSITY_SHADES = new Color[8];
+
+  static {
+    for (int i = 0; i < DENSITY_SHADES.length; i++) {
+      float fill = (i + 1) / (float) DENSITY_SHADES.length;
+      DENSITY_SHADES[i] = new Color(
+          (int) (200 * (1 - fill)), (int) (255 - 127 * fill), (int) (200 * (1 - fill)));
+    }
+  }
+
   private MusicComposition composition;
   private MusicTracker musicTracker;
   private MusicPlayer musicPlayer;
+  private SheetLayout layout;
+  private final ToneDensity density;
+  private double playheadBeat;
+  private int playheadX;
+  // tiles keyed by column above row, in order of use; also guards the fields below it
+  private final Map<Long, BufferedImage> tiles;
+  private CompositionSnapshot tileSnapshot;
+  private int tileTimbre;
+  private SheetLayout tileLayout;
+  private int tileLowest;
+  private int tileRows;
+  private final ExecutorService renderer;
+  private int aheadColumn;
 
   /**
    * Creates a new EditorPanel with a double buffer and a flow layout.
@@ -26,95 +71,398 @@ public class EditorPanel extends JPanel {
     this.composition = composition;
     this.musicTracker = musicTracker;
     this.musicPlayer = musicPlayer;
+    this.layout = SheetLayout.of(SheetLayout.DEFAULT_LEVEL);
+    this.density = new ToneDensity();
+    this.tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+        return this.size() > MAX_TILES;
+      }
+    };
+    this.renderer = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "EditorPanel tiles");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.aheadColumn = -1;
   }
 
   @Override
   public void paintComponent(Graphics g) {
     super.paintComponent(g);
-    this.paintSheet(g);
+    Rectangle drawHere = g.getClipBounds();
+    if (drawHere == null) {
+      drawHere = new Rectangle(0, 0, this.getWidth(), this.getHeight());
+    }
+    CompositionSnapshot snapshot = this.updateTiles();
+    int timbre = this.musicTracker.getTimbre();
+    SheetLayout layout = this.layout;
+    Color background = this.getBackground();
+    GraphicsConfiguration screen = this.getGraphicsConfiguration();
+    if (layout.isDense()) {
+      this.density.update(snapshot, timbre);
+    }
+
+    // copies every tile under the clipping area, drawing those that are not kept
+    int fromColumn = Math.max(drawHere.x / TILE_SIZE, 0);
+    int toColumn = (drawHere.x + drawHere.width - 1) / TILE_SIZE;
+    int fromRow = Math.max(drawHere.y / TILE_SIZE, 0);
+    int toRow = (drawHere.y + drawHere.height - 1) / TILE_SIZE;
+    for (int column = fromColumn; column <= toColumn; column++) {
+      for (int row = fromRow; row <= toRow; row++) {
+        long key = (long) column << 32 | row;
+        BufferedImage tile;
+        synchronized (this.tiles) {
+          tile = this.tiles.get(key);
+        }
+        if (tile == null) {
+          tile = this.renderTile(snapshot, timbre, layout, background, screen, column, row);
+          this.keepTile(snapshot, timbre, layout, key, tile);
+        }
+        g.drawImage(tile, column * TILE_SIZE, row * TILE_SIZE, null);
+      }
+    }
+
+    // draws the red line
+    int x = this.playheadX;
+    int y = this.tileRows * SheetLayout.CELL_HEIGHT;
+    if (drawHere.intersectsLine(x, 0, x, y)) {
+      g.setColor(Color.RED);
+      g.drawLine(x, 0, x, y);
+    }
+  }
+
+  /**
+   * Moves the playhead to the given position in beats. If it moves by at least a pixel, only the
+   * strip between where it was and where it is now is repainted.
+   * @param beat the position of the playhead, which may fall between beats
+   */
+  public void setPlayhead(double beat) {
+    this.playheadBeat = beat;
+    int x = this.layout.x(beat);
+    if (x != this.playheadX) {
+      int left = Math.min(x, this.playheadX);
+      int right = Math.max(x, this.playheadX);
+      this.playheadX = x;
+      this.repaint(left, 0, right - left + 1, this.getHeight());
+      if (x / TILE_SIZE != this.aheadColumn) {
+        this.aheadColumn = x / TILE_SIZE;
+        this.renderAhead(this.aheadColumn + 1);
+      }
+    }
+  }
+
+  /**
+   * Repaints the part of this panel showing the beats from one beat up to but not including the
+   * other.
+   * @param fromBeat the first beat to repaint
+   * @param toBeat the beat after the last beat to repaint
+   */
+  public void repaintBeats(int fromBeat, int toBeat) {
+    if (toBeat > fromBeat) {
+      // one pixel more covers the line drawn just past the last beat
+      int left = this.layout.x(fromBeat);
+      this.repaint(left, 0, this.layout.right(toBeat) - left + 1, this.getHeight());
+    }
+  }
+
+  /**
+   * Gets the layout this panel draws its sheet with.
+   * @return the layout
+   */
+  public SheetLayout getSheetLayout() {
+    return this.layout;
+  }
+
+  /**
+   * Sets the layout this panel draws its sheet with, keeping the playhead at the same beat. The
+   * panel is laid out and painted again.
+   * @param layout the layout
+   */
+  public void setSheetLayout(SheetLayout layout) {
+    if (layout != this.layout) {
+      this.layout = layout;
+      this.playheadX = layout.x(this.playheadBeat);
+      this.aheadColumn = -1;
+      this.revalidate();
+      this.repaint();
+    }
+  }
+
+  /**
+   * Gets the densities this panel draws its sheet from at the far zoom levels. They are brought
+   * up to date, on the event dispatch thread, whenever such a level is painted.
+   * @return the tone densities
+   */
+  public ToneDensity getDensity() {
+    return this.density;
+  }
+
+  /**
+   * Gets the horizontal position of the playhead in pixels.
+   * @return the x coordinate of the playhead
+   */
+  public int getPlayheadX() {
+    return this.playheadX;
   }
 
   @Override
   public Dimension getPreferredSize() {
+    CompositionSnapshot snapshot = this.composition.snapshot();
     return new Dimension(
-        (this.composition.length() + 1) * this.CELL_WIDTH,
-        (this.composition.range(
-            this.musicTracker.getTimbre()).size() + 1) * this.CELL_HEIGHT);
+        this.layout.width(snapshot.length()),
+        (snapshot.range(
+            this.musicTracker.getTimbre()).size() + 1) * SheetLayout.CELL_HEIGHT);
   }
 
   /**
-   * Paints this EditorPanel's sheet onto the given graphics. Only draws the sheet within
-   * this panel's current clipping area so as to improve performance.
-   * @param g this panel's graphics
+   * Brings the kept tiles up to date with the composition and returns the snapshot they now
+   * show. When only tones changed, the tiles under the tones added or removed are let go, along
+   * with those whose lines moved because the length changed. When the timbre or range of pitches
+   * shown or the zoom level changed, every tile is let go.
    */
-  private void paintSheet(Graphics g) {
-    Rectangle drawHere = g.getClipBounds();
+  private CompositionSnapshot updateTiles() {
+    CompositionSnapshot snapshot = this.composition.snapshot();
+    int timbre = this.musicTracker.getTimbre();
+    SheetLayout layout = this.layout;
+    SortedSet<Pitch> range = snapshot.range(timbre);
+    int lowest = range.isEmpty() ? 0 : range.first().midiPitch();
+    synchronized (this.tiles) {
+      if (snapshot == this.tileSnapshot && timbre == this.tileTimbre
+          && layout == this.tileLayout) {
+        return snapshot;
+      }
+      if (this.tileSnapshot == null || timbre != this.tileTimbre || layout != this.tileLayout
+          || lowest != this.tileLowest || range.size() != this.tileRows) {
+        this.tiles.clear();
+      }
+      else {
+        int oldLength = this.tileSnapshot.length();
+        int newLength = snapshot.length();
+        if (oldLength != newLength) {
+          this.invalidate(layout.x(Math.min(oldLength, newLength)),
+              layout.right(Math.max(oldLength, newLength)) + 1,
+              0, (range.size() + 1) * SheetLayout.CELL_HEIGHT);
+        }
+        ToneVisitor changed = (t, midiPitch, start, duration, volume) -> {
+          if (t == timbre) {
+            int y = (midiPitch - lowest) * SheetLayout.CELL_HEIGHT;
+            this.invalidate(layout.x(start), layout.right(start + Math.max(duration, 1)),
+                y, y + SheetLayout.CELL_HEIGHT);
+          }
+        };
+        snapshot.forEachDifference(this.tileSnapshot, changed, changed);
+      }
+      this.tileSnapshot = snapshot;
+      this.tileTimbre = timbre;
+      this.tileLayout = layout;
+      this.tileLowest = lowest;
+      this.tileRows = range.size();
+    }
+    return snapshot;
+  }
 
+  /**
+   * Lets go of every kept tile that overlaps the given area, given as the left and top pixels and
+   * the pixels just past its right and bottom. Must be called holding the lock on the tiles.
+   */
+  private void invalidate(int left, int right, int top, int bottom) {
+    int fromColumn = left / TILE_SIZE;
+    int toColumn = (right - 1) / TILE_SIZE;
+    int fromRow = top / TILE_SIZE;
+    int toRow = (bottom - 1) / TILE_SIZE;
+    if ((long) (toColumn - fromColumn + 1) * (toRow - fromRow + 1) > this.tiles.size()) {
+      // the area covers more tiles than are kept, so the kept tiles are checked instead
+      Iterator<Long> keys = this.tiles.keySet().iterator();
+      while (keys.hasNext()) {
+        long key = keys.next();
+        int column = (int) (key >>> 32);
+        int row = (int) key;
+        if (column >= fromColumn && column <= toColumn && row >= fromRow && row <= toRow) {
+          keys.remove();
+        }
+      }
+      return;
+    }
+    for (int column = fromColumn; column <= toColumn; column++) {
+      for (int row = fromRow; row <= toRow; row++) {
+        this.tiles.remove((long) column << 32 | row);
+      }
+    }
+  }
+
+  /**
+   * Keeps the given tile, drawn from the given snapshot and timbre with the given layout, unless
+   * the tiles have moved on to another snapshot, timbre, or layout since it was drawn.
+   */
+  private void keepTile(CompositionSnapshot snapshot, int timbre, SheetLayout layout, long key,
+                        BufferedImage tile) {
+    synchronized (this.tiles) {
+      if (snapshot == this.tileSnapshot && timbre == this.tileTimbre
+          && layout == this.tileLayout) {
+        this.tiles.put(key, tile);
+      }
+    }
+  }
+
+  /**
+   * Draws, on the background thread, the tiles of the given column that are in view and not
+   * kept. Tiles of the far zoom levels read densities kept on the event dispatch thread, so they
+   * are not drawn ahead.
+   */
+  private void renderAhead(int column) {
+    SheetLayout layout = this.layout;
+    if (layout.isDense()) {
+      return;
+    }
+    CompositionSnapshot snapshot = this.updateTiles();
     int timbre = this.musicTracker.getTimbre();
-    SortedSet<Pitch> range = this.composition.range(timbre);
-    int length = this.composition.length();
+    Color background = this.getBackground();
+    GraphicsConfiguration screen = this.getGraphicsConfiguration();
+    Rectangle visible = this.getVisibleRect();
+    int fromRow = Math.max(visible.y / TILE_SIZE, 0);
+    int toRow = (visible.y + visible.height - 1) / TILE_SIZE;
+    for (int row = fromRow; row <= toRow; row++) {
+      long key = (long) column << 32 | row;
+      int tileRow = row;
+      synchronized (this.tiles) {
+        if (this.tiles.containsKey(key)) {
+          continue;
+        }
+      }
+      this.renderer.execute(() -> this.keepTile(snapshot, timbre, layout, key,
+          this.renderTile(snapshot, timbre, layout, background, screen, column, tileRow)));
+    }
+  }
+
+  /**
+   * Draws the tile at the given column and row of the sheet of the given timbre in the given
+   * snapshot with the given layout. The tile is made compatible with the given screen, if there
+   * is one, so that it can be kept in video memory and copied quickly. At the levels that are
+   * not dense it reads nothing else from this panel, so it may be called on any thread.
+   */
+  private BufferedImage renderTile(CompositionSnapshot snapshot, int timbre, SheetLayout layout,
+                                   Color background, GraphicsConfiguration screen,
+                                   int column, int row) {
+    BufferedImage tile = screen == null
+        ? new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB)
+        : screen.createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.OPAQUE);
+    Graphics2D g = tile.createGraphics();
+    g.setColor(background);
+    g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+    g.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+    g.setClip(column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+    this.paintSheet(g, snapshot, timbre, layout);
+    g.dispose();
+    return tile;
+  }
+
+  /**
+   * Paints the sheet of the given timbre in the given snapshot onto the given graphics with the
+   * given layout, without the playhead. The clipping area is first turned into a window of beats
+   * and a window of pitches, and only the tones and lines within that window are drawn, so
+   * painting costs the same however long the composition is.
+   * @param g the graphics of a tile
+   */
+  private void paintSheet(Graphics g, CompositionSnapshot snapshot, int timbre,
+                          SheetLayout layout) {
+    Rectangle drawHere = g.getClipBounds();
+    SortedSet<Pitch> range = snapshot.range(timbre);
+    int length = snapshot.length();
 
     int col = length;
     int row = range.size();
 
-    // draws the notes
-    int curRow = 0;
-    for (Pitch p : range) {
-      for (int curCol = 0; curCol < length; curCol++) {
-        Tone tone = this.composition.getTone(timbre, p, curCol);
-        if (tone != null) {
-          // creates a rectangle to represent the continuation of the tone and draws it if it
-          // intersects the clipping area
-          Rectangle greenRect = new Rectangle(
-              this.CELL_WIDTH * tone.getDuration(), this.CELL_HEIGHT);
-          greenRect.setLocation(
-              this.CELL_WIDTH * curCol, this.CELL_HEIGHT * curRow);
-          if (drawHere.intersects(greenRect)) {
-            g.setColor(Color.GREEN);
-            g.fillRect(greenRect.x, greenRect.y, greenRect.width, greenRect.height);
-          }
-          // creates a rectangle to represent the start of the tone and draws it if it
-          // intersects the clipping area
-          Rectangle blackRect = new Rectangle(
-              this.CELL_WIDTH, this.CELL_HEIGHT);
-          blackRect.setLocation(
-              this.CELL_WIDTH * curCol, this.CELL_HEIGHT * curRow);
-          if (drawHere.intersects(blackRect)) {
-            g.setColor(Color.BLACK);
-            g.fillRect(blackRect.x, blackRect.y, blackRect.width, blackRect.height);
-          }
-        }
-      }
-      curRow++;
+    // the beats and rows that the clipping area covers
+    int fromBeat = Math.max(layout.beatAt(drawHere.x), 0);
+    int toBeat = Math.min(layout.beatAt(drawHere.x + drawHere.width - 1) + 1, col);
+    int fromRow = Math.max(drawHere.y / SheetLayout.CELL_HEIGHT, 0);
+    int toRow = Math.min((drawHere.y + drawHere.height - 1) / SheetLayout.CELL_HEIGHT + 1, row);
+
+    if (fromRow < toRow && layout.isDense()) {
+      this.paintDensity(g, range.first().midiPitch(), fromRow, toRow, fromBeat, toBeat, layout);
+    }
+    else if (fromRow < toRow) {
+      // draws the notes, cutting each to the window so that long tones stay within int range
+      int lowest = range.first().midiPitch();
+      snapshot.forEachToneBetween(timbre, Pitch.of(lowest + fromRow),
+          Pitch.of(lowest + toRow - 1), fromBeat, toBeat,
+          (t, midiPitch, start, duration, volume) -> {
+            int y = (midiPitch - lowest) * SheetLayout.CELL_HEIGHT;
+            int first = Math.max(start, fromBeat);
+            int end = Math.min(start + duration, toBeat);
+            if (end > first) {
+              g.setColor(Color.GREEN);
+              g.fillRect(layout.x(first), y,
+                  layout.x(end) - layout.x(first), SheetLayout.CELL_HEIGHT);
+            }
+            if (start >= fromBeat) {
+              g.setColor(Color.BLACK);
+              g.fillRect(layout.x(start), y,
+                  layout.x(start + 1) - layout.x(start), SheetLayout.CELL_HEIGHT);
+            }
+          });
     }
 
-    // draws the measure lines
-    for (int i = 0; i < col; i += 4) {
-      int x = i * this.CELL_WIDTH;
-      int y2 = row * this.CELL_HEIGHT;
-      if (drawHere.intersectsLine(x, 0, x, y2)) {
-        g.setColor(Color.BLACK);
-        g.drawLine(x, 0, x, y2);
-      }
+    g.setColor(Color.BLACK);
+    // draws the measure lines, starting from the first at or after the window
+    int y2 = row * SheetLayout.CELL_HEIGHT;
+    int step = layout.lineStep();
+    for (int i = (fromBeat + step - 1) / step * step; i < col && i <= toBeat; i += step) {
+      int x = layout.x(i);
+      g.drawLine(x, 0, x, y2);
     }
 
     // draws the pitch lines
-    for (int i = 0; i < row + 1; i++) {
-      int y = i * this.CELL_HEIGHT;
-      int x2 = col * this.CELL_WIDTH;
-      if (drawHere.intersectsLine(0, y, x2, y)) {
-        g.setColor(Color.BLACK);
-        g.drawLine(0, y, x2, y);
-      }
+    int x2 = layout.x(col);
+    for (int i = fromRow; i <= Math.min(toRow, row); i++) {
+      int y = i * SheetLayout.CELL_HEIGHT;
+      g.drawLine(0, y, x2, y);
     }
+  }
 
-    // draws the red line
-    Sequencer sequencer = this.musicPlayer.getSequencer();
-    int x = (int) sequencer.getTickPosition() * this.CELL_WIDTH;
-    int y = range.size() * this.CELL_HEIGHT;
-    if (drawHere.intersectsLine(x, 0, x, y)) {
-      g.setColor(Color.RED);
-      g.drawLine(x, 0, x, y);
+  /**
+   * Returns the index of the shade of {@link #DENSITY_SHADES} for a bucket of the given number of
+   * beats of which the given number are sounding, or -1 if none are.
+   */
+  static int shadeOf(int covered, int beats) {
+    if (covered <= 0) {
+      return -1;
+    }
+    return (int) Math.min((long) covered * DENSITY_SHADES.length / beats,
+        DENSITY_SHADES.length - 1);
+  }
+
+  /**
+   * Paints the given rows, whose first row has the given pitch, from the densities of the
+   * level that has a bucket for each pixel of the given layout. Each run of pixels of the same
+   * shade is drawn as one rectangle.
+   */
+  private void paintDensity(Graphics g, int lowest, int fromRow, int toRow,
+                            int fromBeat, int toBeat, SheetLayout layout) {
+    int beats = layout.beatsPerPixel();
+    int level = Integer.numberOfTrailingZeros(beats) / 2 - 1;
+    int fromBucket = fromBeat / beats;
+    int toBucket = (toBeat + beats - 1) / beats;
+    for (int row = fromRow; row < toRow; row++) {
+      int midiPitch = lowest + row;
+      int y = row * SheetLayout.CELL_HEIGHT;
+      int runStart = fromBucket;
+      int runShade = -1;
+      for (int bucket = fromBucket; bucket <= toBucket; bucket++) {
+        int shade = -1;
+        if (bucket < toBucket) {
+          shade = shadeOf(this.density.coverage(level, midiPitch, bucket), beats);
+        }
+        if (shade != runShade) {
+          if (runShade != -1) {
+            g.setColor(DENSITY_SHADES[runShade]);
+            g.fillRect(runStart, y, bucket - runStart, SheetLayout.CELL_HEIGHT);
+          }
+          runStart = bucket;
+          runShade = shade;
+        }
+      }
     }
   }
 }
@@ -11,11 +11,10 @@ import java.awt.*;
  * Created by gwlar on 6/28/2017.
  */
 public class MeasuresComponent extends JComponent {
-  private final int CELL_WIDTH = 20;
-  private final int CELL_HEIGHT = 20;
   private MusicComposition composition;
   private MusicTracker musicTracker;
   private MusicPlayer musicPlayer;
+  private SheetLayout layout;
 
   /**
    * Creates a new EditorPanel with a double buffer and a flow layout.
@@ -26,6 +25,20 @@ public class MeasuresComponent extends JComponent {
     this.composition = composition;
     this.musicTracker = musicTracker;
     this.musicPlayer = musicPlayer;
+    this.layout = SheetLayout.of(SheetLayout.DEFAULT_LEVEL);
+  }
+
+  /**
+   * Sets the layout this component labels the measures of, which should be the one the sheet is
+   * drawn with. The component is laid out and painted again.
+   * @param layout the layout
+   */
+  public void setSheetLayout(SheetLayout layout) {
+    if (layout != this.layout) {
+      this.layout = layout;
+      this.revalidate();
+      this.repaint();
+    }
   }
 
   @Override
@@ -37,22 +50,29 @@ public class MeasuresComponent extends JComponent {
   @Override
   public Dimension getPreferredSize() {
     return new Dimension(
-        (this.composition.length() + 1) * this.CELL_WIDTH,
-        this.CELL_HEIGHT);
+        this.layout.width(this.composition.snapshot().length()),
+        SheetLayout.CELL_HEIGHT);
   }
 
   /**
-   * Paints the measure labels of this component's composition onto the given graphics.
+   * Paints the measure labels of this component's composition onto the given graphics, as far
+   * apart as the layout's zoom level allows, starting from the first within the clipping area.
    * @param g the given graphics
    */
   private void paintMeasures(Graphics g) {
     Rectangle drawHere = g.getClipBounds();
-    int length = this.composition.length();
+    int length = this.composition.snapshot().length();
+    SheetLayout layout = this.layout;
+    int step = layout.labelStep();
+    int first = Math.max(layout.beatAt(drawHere.x), 0);
 
-    for (int i = 0; i < length; i += 4) {
-      int x = i * this.CELL_WIDTH;
-      if (drawHere.contains(x, this.CELL_HEIGHT / 2)) {
-        g.drawString(Integer.toString(i), x, this.CELL_HEIGHT / 2);
+    for (int i = (first + step - 1) / step * step; i < length; i += step) {
+      int x = layout.x(i);
+      if (x >= drawHere.x + drawHere.width) {
+        break;
+      }
+      if (drawHere.contains(x, SheetLayout.CELL_HEIGHT / 2)) {
+        g.drawString(Integer.toString(i), x, SheetLayout.CELL_HEIGHT / 2);
       }
     }
   }
@@ -0,0 +1,170 @@
+package musicEditor.gui;
+
+import musicEditor.music.*;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.SortedSet;
+
+/**
+ * Represents an overview of the whole of the current sheet, drawn across the width of the
+ * component with the part shown in the editor outlined.
+ * <p>The overview is drawn from the {@link ToneDensity} the editor keeps, at the finest level
+ * that has no more buckets than the component has pixels across, so drawing it costs the same
+ * however long the composition is. After an edit only the columns covering the beats that
+ * changed are repainted, unless the length changed and every column moved.</p>
+ */
+public class MinimapComponent extends JComponent {
+  private static final int HEIGHT = 64;
+
+  private MusicComposition composition;
+  private MusicTracker musicTracker;
+  private final ToneDensity density;
+  private int viewFrom;
+  private int viewTo;
+  private int shownLength;
+
+  /**
+   * Creates a new MinimapComponent drawing the given composition from the given densities.
+   */
+  public MinimapComponent(MusicComposition composition, MusicTracker musicTracker,
+                          ToneDensity density) {
+    super();
+    this.composition = composition;
+    this.musicTracker = musicTracker;
+    this.density = density;
+    this.setOpaque(true);
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    return new Dimension(0, HEIGHT);
+  }
+
+  /**
+   * Brings the densities up to date with the composition and repaints the columns covering the
+   * beats that changed since this was last called.
+   */
+  public void refresh() {
+    CompositionSnapshot snapshot = this.composition.snapshot();
+    this.density.update(snapshot, this.musicTracker.getTimbre());
+    int from = this.density.changedFrom();
+    int to = this.density.changedTo();
+    this.density.clearChanges();
+    if (snapshot.length() != this.shownLength) {
+      this.shownLength = snapshot.length();
+      this.repaint();
+    }
+    else if (from < to) {
+      int left = this.x(from);
+      this.repaint(left, 0, this.x(Math.min(to, this.shownLength)) - left + 1, this.getHeight());
+    }
+  }
+
+  /**
+   * Outlines the beats from one beat up to but not including the other as those shown in the
+   * editor, repainting only where the outline was and where it is now.
+   * @param fromBeat the first beat shown
+   * @param toBeat the beat after the last beat shown
+   */
+  public void setView(int fromBeat, int toBeat) {
+    if (fromBeat != this.viewFrom || toBeat != this.viewTo) {
+      this.repaintView();
+      this.viewFrom = fromBeat;
+      this.viewTo = toBeat;
+      this.repaintView();
+    }
+  }
+
+  /**
+   * Gets the beat drawn at the given horizontal position.
+   * @param x the x coordinate
+   * @return the beat drawn there
+   */
+  public int beatAt(int x) {
+    int width = Math.max(this.getWidth(), 1);
+    return (int) ((long) Math.max(x, 0) * this.shownLength / width);
+  }
+
+  @Override
+  public void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    Rectangle drawHere = g.getClipBounds();
+    if (drawHere == null) {
+      drawHere = new Rectangle(0, 0, this.getWidth(), this.getHeight());
+    }
+    g.setColor(this.getBackground());
+    g.fillRect(drawHere.x, drawHere.y, drawHere.width, drawHere.height);
+    CompositionSnapshot snapshot = this.composition.snapshot();
+    int timbre = this.musicTracker.getTimbre();
+    this.density.update(snapshot, timbre);
+    this.shownLength = snapshot.length();
+    SortedSet<Pitch> range = snapshot.range(timbre);
+    if (range.isEmpty() || this.shownLength == 0 || this.getWidth() == 0) {
+      return;
+    }
+
+    // the finest level with no more buckets than there are pixels across
+    int level = 0;
+    while (level < ToneDensity.LEVELS - 1
+        && this.bucketsNeeded(level) > Math.max(this.getWidth(), 1)) {
+      level++;
+    }
+    int beats = ToneDensity.bucketBeats(level);
+    int fromBucket = this.beatAt(drawHere.x) / beats;
+    int toBucket = Math.min(this.bucketsNeeded(level) - 1,
+        this.beatAt(drawHere.x + drawHere.width) / beats);
+    int lowest = range.first().midiPitch();
+    int rows = range.size();
+    int height = this.getHeight();
+
+    for (int bucket = fromBucket; bucket <= toBucket; bucket++) {
+      int left = this.x(bucket * beats);
+      int right = Math.max(this.x(Math.min((bucket + 1) * beats, this.shownLength)), left + 1);
+      // each bucket's span of beats, cut short at the end of the composition
+      int span = Math.min(beats, this.shownLength - bucket * beats);
+      for (int row = 0; row < rows; row++) {
+        int shade = EditorPanel.shadeOf(
+            this.density.coverage(level, lowest + row, bucket), Math.max(span, 1));
+        if (shade != -1) {
+          int top = row * height / rows;
+          int bottom = (row + 1) * height / rows;
+          g.setColor(EditorPanel.DENSITY_SHADES[shade]);
+          g.fillRect(left, top, right - left, Math.max(bottom - top, 1));
+        }
+      }
+    }
+
+    // outlines the part shown in the editor
+    if (this.viewTo > this.viewFrom) {
+      int left = this.x(this.viewFrom);
+      g.setColor(Color.RED);
+      g.drawRect(left, 0, Math.max(this.x(this.viewTo) - left, 1), height - 1);
+    }
+  }
+
+  /**
+   * Gets the horizontal position of the start of the given beat.
+   */
+  private int x(int beat) {
+    return (int) ((long) beat * this.getWidth() / Math.max(this.shownLength, 1));
+  }
+
+  /**
+   * Gets the number of buckets of the given level covering the composition.
+   */
+  private int bucketsNeeded(int level) {
+    int beats = ToneDensity.bucketBeats(level);
+    return (int) (((long) this.shownLength + beats - 1) / beats);
+  }
+
+  /**
+   * Repaints the outline of the part shown in the editor.
+   */
+  private void repaintView() {
+    if (this.viewTo > this.viewFrom) {
+      int left = this.x(this.viewFrom);
+      this.repaint(left, 0, this.x(this.viewTo) - left + 1, this.getHeight());
+    }
+  }
+}
@@ -1,22 +1,194 @@
 package musicEditor.gui;
 
+import musicEditor.music.ActiveNotes;
+import musicEditor.music.CompositionSnapshot;
 import musicEditor.music.MusicComposition;
 import musicEditor.music.MusicPlayer;
 import musicEditor.music.MusicTracker;
+import musicEditor.music.Pitch;
 
 import javax.swing.*;
+import java.awt.*;
+import java.util.SortedSet;
 
 /**
  * Represents the panel that will display the piano on the MusicEditorFrame
+ * <p>The piano has the 88 keys from A0 to C8, or all 128 MIDI keys when the current timbre has
+ * pitches beyond them, and the keys whose pitches the current timbre is sounding at the playhead
+ * are lit. Which are sounding is kept by an {@link ActiveNotes} as the playhead moves, and only
+ * the keys that were lit or put out are repainted.</p>
  */
 public class PianoPanel extends JPanel {
+  private static final int HEIGHT = 100;
+  private static final int LOWEST_88 = 21;
+  private static final int HIGHEST_88 = 108;
+  // the number of white keys in an octave below each pitch class, so that a black key sits on
+  // the edge between the white keys either side of it
+  private static final int[] WHITES_BELOW = {0, 1, 1, 2, 2, 3, 4, 4, 5, 5, 6, 6};
+  private static final boolean[] BLACK =
+      {false, true, false, true, false, false, true, false, true, false, true, false};
+
   private MusicComposition composition;
   private MusicTracker tracker;
   private MusicPlayer player;
+  private final ActiveNotes notes;
+  private final long[] changed;
+  private CompositionSnapshot shownSnapshot;
+  private int shownTimbre;
+  private int lowestKey;
+  private int highestKey;
 
   public PianoPanel(MusicComposition composition, MusicTracker tracker, MusicPlayer player) {
     this.composition = composition;
     this.tracker = tracker;
     this.player = player;
+    this.notes = new ActiveNotes();
+    this.changed = new long[2];
+    this.lowestKey = LOWEST_88;
+    this.highestKey = HIGHEST_88;
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    return new Dimension(0, HEIGHT);
+  }
+
+  /**
+   * Brings the keys up to date with the composition, repainting the keys lit or put out by the
+   * tones added or removed, or every key if the piano needs more or fewer of them.
+   */
+  public void refresh() {
+    CompositionSnapshot snapshot = this.composition.snapshot();
+    int timbre = this.tracker.getTimbre();
+    if (snapshot == this.shownSnapshot && timbre == this.shownTimbre) {
+      return;
+    }
+    this.shownSnapshot = snapshot;
+    this.shownTimbre = timbre;
+    SortedSet<Pitch> range = snapshot.range(timbre);
+    boolean fits = range.isEmpty() || (range.first().midiPitch() >= LOWEST_88
+        && range.last().midiPitch() <= HIGHEST_88);
+    int lowest = fits ? LOWEST_88 : 0;
+    int highest = fits ? HIGHEST_88 : 127;
+    boolean changedKeys = this.notes.update(snapshot, timbre, this.changed);
+    if (lowest != this.lowestKey || highest != this.highestKey) {
+      this.lowestKey = lowest;
+      this.highestKey = highest;
+      this.repaint();
+    }
+    else if (changedKeys) {
+      this.repaintKeys();
+    }
+  }
+
+  /**
+   * Moves the playhead to the given position in beats, repainting only the keys whose pitches
+   * started or stopped sounding.
+   * @param beat the position of the playhead, which may fall between beats
+   */
+  public void setPlayhead(double beat) {
+    this.refresh();
+    if (this.notes.moveTo((int) beat, this.changed)) {
+      this.repaintKeys();
+    }
+  }
+
+  @Override
+  public void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    Rectangle drawHere = g.getClipBounds();
+    if (drawHere == null) {
+      drawHere = new Rectangle(0, 0, this.getWidth(), this.getHeight());
+    }
+    int height = this.getHeight();
+    int blackHeight = height * 3 / 5;
+
+    // the black keys are drawn over the white keys
+    for (int pass = 0; pass < 2; pass++) {
+      boolean black = pass == 1;
+      for (int key = this.lowestKey; key <= this.highestKey; key++) {
+        if (BLACK[key % 12] != black) {
+          continue;
+        }
+        int left = this.keyLeft(key);
+        int width = this.keyRight(key) - left;
+        int keyHeight = black ? blackHeight : height;
+        if (!drawHere.intersects(left, 0, width, keyHeight)) {
+          continue;
+        }
+        if (this.notes.isSounding(key)) {
+          g.setColor(black ? Color.GREEN.darker() : Color.GREEN);
+        }
+        else {
+          g.setColor(black ? Color.BLACK : Color.WHITE);
+        }
+        g.fillRect(left, 0, width, keyHeight);
+        g.setColor(Color.BLACK);
+        g.drawRect(left, 0, width - 1, keyHeight - 1);
+      }
+    }
+  }
+
+  /**
+   * Repaints the keys marked as changed.
+   */
+  private void repaintKeys() {
+    for (int word = 0; word < 2; word++) {
+      long bits = this.changed[word];
+      while (bits != 0) {
+        int key = word * 64 + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+        if (key >= this.lowestKey && key <= this.highestKey) {
+          int left = this.keyLeft(key);
+          int height = BLACK[key % 12] ? this.getHeight() * 3 / 5 : this.getHeight();
+          this.repaint(left, 0, this.keyRight(key) - left, height);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the horizontal position of the left of the given key.
+   */
+  private int keyLeft(int key) {
+    if (BLACK[key % 12]) {
+      int edge = this.whiteX(this.whitesBelow(key));
+      return edge - (this.whiteX(1) - this.whiteX(0)) * 3 / 10;
+    }
+    return this.whiteX(this.whitesBelow(key));
+  }
+
+  /**
+   * Gets the horizontal position just past the right of the given key.
+   */
+  private int keyRight(int key) {
+    if (BLACK[key % 12]) {
+      int edge = this.whiteX(this.whitesBelow(key));
+      return edge + (this.whiteX(1) - this.whiteX(0)) * 3 / 10 + 1;
+    }
+    return this.whiteX(this.whitesBelow(key) + 1);
+  }
+
+  /**
+   * Gets the number of white keys on the piano below the given key.
+   */
+  private int whitesBelow(int key) {
+    return this.whites(key) - this.whites(this.lowestKey);
+  }
+
+  /**
+   * Gets the number of white MIDI keys below the given key.
+   */
+  private int whites(int key) {
+    return key / 12 * 7 + WHITES_BELOW[key % 12];
+  }
+
+  /**
+   * Gets the horizontal position of the left of the white key with the given number of white
+   * keys on the piano below it, spreading the white keys evenly across the panel.
+   */
+  private int whiteX(int white) {
+    int count = this.whitesBelow(this.highestKey) + 1;
+    return (int) ((long) white * this.getWidth() / count);
   }
 }
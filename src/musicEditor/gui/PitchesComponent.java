@@ -12,7 +12,6 @@ import java.util.SortedSet;
  */
 public class PitchesComponent extends JComponent {
   private final int CELL_WIDTH = 20;
-  private final int CELL_HEIGHT = 20;
   private MusicComposition composition;
   private MusicTracker musicTracker;
   private MusicPlayer musicPlayer;
@@ -38,8 +37,8 @@ public class PitchesComponent extends JComponent {
   public Dimension getPreferredSize() {
     return new Dimension(
         this.CELL_WIDTH,
-        (this.composition.range(
-            this.musicTracker.getTimbre()).size() + 1) * this.CELL_HEIGHT);
+        (this.composition.snapshot().range(
+            this.musicTracker.getTimbre()).size() + 1) * SheetLayout.CELL_HEIGHT);
   }
 
   /**
@@ -48,11 +47,12 @@ public class PitchesComponent extends JComponent {
    */
   private void paintPitches(Graphics g) {
     Rectangle drawHere = g.getClipBounds();
-    SortedSet<Pitch> range = this.composition.range(this.musicTracker.getTimbre());
+    SortedSet<Pitch> range =
+        this.composition.snapshot().range(this.musicTracker.getTimbre());
 
     int y = 0;
     for (Pitch p : range) {
-      y += this.CELL_HEIGHT;
+      y += SheetLayout.CELL_HEIGHT;
       if (drawHere.contains(0, y)) {
         g.drawString(p.toString(), 0, y);
       }
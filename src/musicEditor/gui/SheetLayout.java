@@ -0,0 +1,186 @@
+package musicEditor.gui;
+
+/**
+ * Represents one zoom level of a sheet: how many pixels wide its beats are and where each beat is
+ * drawn. One layout is shared by every component showing the sheet so that they stay lined up.
+ * <p>The nearest levels draw every tone. At the far levels a pixel covers several beats, so the
+ * sheet is drawn from the density of its tones instead, and each pixel covers exactly one bucket
+ * of a level of {@link musicEditor.music.ToneDensity}. Rows are the same height at every
+ * level.</p>
+ * <p>Layouts are immutable, and there is one for each level.</p>
+ */
+public final class SheetLayout {
+  /**
+   * The height of a row of the sheet in pixels.
+   */
+  public static final int CELL_HEIGHT = 20;
+  /**
+   * The level the sheet is first shown at, where a beat is twenty pixels wide.
+   */
+  public static final int DEFAULT_LEVEL = 0;
+
+  private static final int[] PIXELS = {20, 10, 5, 2, 1, 1, 1, 1, 1};
+  private static final int[] BEATS = {1, 1, 1, 1, 1, 4, 16, 64, 256};
+  private static final int MIN_LINE_SPACING = 16;
+  private static final int MIN_LABEL_SPACING = 40;
+  private static final SheetLayout[] LEVELS = new SheetLayout[PIXELS.length];
+
+  static {
+    for (int level = 0; level < LEVELS.length; level++) {
+      LEVELS[level] = new SheetLayout(level);
+    }
+  }
+
+  private final int level;
+  private final int pixels;
+  private final int beats;
+
+  /**
+   * Constructs the SheetLayout of the given level.
+   */
+  private SheetLayout(int level) {
+    this.level = level;
+    this.pixels = PIXELS[level];
+    this.beats = BEATS[level];
+  }
+
+  /**
+   * Returns the layout of the given level, where level zero is the nearest.
+   * @param level the zoom level
+   * @return the layout
+   * @throws IllegalArgumentException if there is no such level
+   */
+  public static SheetLayout of(int level) {
+    if (level < 0 || level >= LEVELS.length) {
+      throw new IllegalArgumentException("no zoom level " + level);
+    }
+    return LEVELS[level];
+  }
+
+  /**
+   * Gets the number of zoom levels.
+   * @return the number of levels
+   */
+  public static int levels() {
+    return LEVELS.length;
+  }
+
+  /**
+   * Gets the zoom level of this layout, where level zero is the nearest.
+   * @return the level
+   */
+  public int getLevel() {
+    return this.level;
+  }
+
+  /**
+   * Returns the layout one level nearer than this one, or this one if it is the nearest.
+   * @return the nearer layout
+   */
+  public SheetLayout zoomIn() {
+    return LEVELS[Math.max(this.level - 1, 0)];
+  }
+
+  /**
+   * Returns the layout one level farther than this one, or this one if it is the farthest.
+   * @return the farther layout
+   */
+  public SheetLayout zoomOut() {
+    return LEVELS[Math.min(this.level + 1, LEVELS.length - 1)];
+  }
+
+  /**
+   * Returns true if a pixel covers more than one beat at this level, so the sheet is drawn from
+   * the density of its tones rather than tone by tone.
+   * @return whether this level is drawn from densities
+   */
+  public boolean isDense() {
+    return this.beats > 1;
+  }
+
+  /**
+   * Gets the number of beats a pixel covers at this level, which is one at the levels that are
+   * not dense.
+   * @return the beats per pixel
+   */
+  public int beatsPerPixel() {
+    return this.beats;
+  }
+
+  /**
+   * Gets the horizontal position of the start of the given beat in pixels.
+   * @param beat the beat
+   * @return the x coordinate of the left of the beat
+   */
+  public int x(int beat) {
+    return (int) Math.floorDiv((long) beat * this.pixels, this.beats);
+  }
+
+  /**
+   * Gets the horizontal position of the given position in beats, rounded to the nearest pixel.
+   * @param beat the position in beats, which may fall between beats
+   * @return the x coordinate of the position
+   */
+  public int x(double beat) {
+    return (int) Math.round(beat * this.pixels / this.beats);
+  }
+
+  /**
+   * Gets the horizontal position just past the last pixel drawing any of the beats before the
+   * given beat.
+   * @param beat the beat
+   * @return the x coordinate just past the beats before the given beat
+   */
+  public int right(int beat) {
+    return (int) -Math.floorDiv(-(long) beat * this.pixels, this.beats);
+  }
+
+  /**
+   * Gets the beat drawn at the given horizontal position.
+   * @param x the x coordinate
+   * @return the beat drawn there
+   */
+  public int beatAt(int x) {
+    return (int) Math.floorDiv((long) x * this.beats, this.pixels);
+  }
+
+  /**
+   * Gets the width in pixels of a sheet of the given length, with a beat to spare after it.
+   * @param length the number of beats in the sheet
+   * @return the width of the sheet
+   */
+  public int width(int length) {
+    return this.right(length + 1);
+  }
+
+  /**
+   * Gets the number of beats between the measure lines drawn at this level. Lines are drawn at
+   * every measure of four beats, or at every second, fourth, and so on where measures would be
+   * drawn too close together.
+   * @return the beats between measure lines
+   */
+  public int lineStep() {
+    return this.step(MIN_LINE_SPACING);
+  }
+
+  /**
+   * Gets the number of beats between the measure labels drawn at this level, chosen as the lines
+   * are but spaced widely enough for a label.
+   * @return the beats between measure labels
+   */
+  public int labelStep() {
+    return this.step(MIN_LABEL_SPACING);
+  }
+
+  /**
+   * Returns the smallest whole number of measures, doubling from one, at least the given number
+   * of pixels wide.
+   */
+  private int step(int spacing) {
+    int step = 4;
+    while ((long) step * this.pixels < (long) spacing * this.beats) {
+      step *= 2;
+    }
+    return step;
+  }
+}
@@ -1,8 +1,10 @@
 package musicEditor.model;
 
+import musicEditor.music.Feature;
 import musicEditor.music.MusicComposition;
 import musicEditor.music.MusicPlayer;
 import musicEditor.music.MusicTracker;
+import musicEditor.music.PerformanceTimeline;
 import musicEditor.music.Pitch;
 import musicEditor.music.Tone;
 
@@ -140,4 +142,26 @@ public interface IMusicEditorModel {
    * @return the number of beats long this model's composition is
    */
   int length();
+
+  /**
+   * Adds the given feature to the composition at the given beat.
+   * @param feature the feature to add
+   * @param beat the beat the feature occurs at
+   * @throws IllegalArgumentException if there is already a feature at the given beat
+   */
+  void addFeature(Feature feature, int beat);
+
+  /**
+   * Removes the feature at the given beat from the composition.
+   * @param beat the beat of the feature
+   * @return the feature removed, or null if there was none
+   */
+  Feature removeFeature(int beat);
+
+  /**
+   * Returns the order in which the beats of the composition are performed once its repetitions
+   * are unrolled.
+   * @return the performance timeline of this model's composition
+   */
+  PerformanceTimeline getTimeline();
 }
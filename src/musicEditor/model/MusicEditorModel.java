@@ -2,8 +2,8 @@ package musicEditor.model;
 
 import musicEditor.music.*;
 import musicEditor.util.CompositionBuilder;
+import musicEditor.util.NoteBuffer;
 
-import javax.sound.midi.Sequencer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedSet;
@@ -126,9 +126,7 @@ public class MusicEditorModel implements IMusicEditorModel {
 
   @Override
   public Tone removeTone(Pitch pitch) {
-    Sequencer sequencer = this.player.getSequencer();
-    return this.composition.removeTone(
-        this.tracker.getTimbre(), pitch, (int) sequencer.getTickPosition());
+    return this.composition.removeTone(this.tracker.getTimbre(), pitch, this.player.getBeat());
   }
 
   @Override
@@ -151,7 +149,21 @@ public class MusicEditorModel implements IMusicEditorModel {
     return this.composition.length();
   }
 
-  /* TODO: Add Feature methods. */
+  @Override
+  public void addFeature(Feature feature, int beat) {
+    this.composition.addFeature(feature, beat);
+  }
+
+  @Override
+  public Feature removeFeature(int beat) {
+    return this.composition.removeFeature(beat);
+  }
+
+  @Override
+  public PerformanceTimeline getTimeline() {
+    return PerformanceTimeline.of(
+        this.composition.getFeatures(), this.composition.snapshot().length());
+  }
 
 
   /**
@@ -170,6 +182,16 @@ public class MusicEditorModel implements IMusicEditorModel {
       this.model = new MusicEditorModel();
     }
 
+    /**
+     * Constructs a Builder that adds notes to the given composition, which allows a different
+     * storage engine such as a {@link ColumnarComposition} to be chosen.
+     * @param composition the initially empty composition the notes are added to
+     */
+    public Builder(MusicComposition composition) {
+      this();
+      this.composition = composition;
+    }
+
     /**
      * Builds the MusicEditorModel.
      */
@@ -187,9 +209,27 @@ public class MusicEditorModel implements IMusicEditorModel {
     @Override
     public CompositionBuilder<MusicEditorModel> addNote(
         int start, int end, int timbre, int midiPitch, int volume) {
-      Tone tone = new Tone(new Pitch((midiPitch)), start, end - start, volume, timbre);
+      Tone tone = new Tone(Pitch.of(midiPitch), start, end - start, volume, timbre);
       this.composition.addTone(tone);
       return this;
     }
+
+    @Override
+    public CompositionBuilder<MusicEditorModel> addNotes(NoteBuffer notes) {
+      this.composition.addTones(notes);
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<MusicEditorModel> addRepetition(int beat, int rewind, int loops) {
+      return this.addRepetition(beat, rewind, loops, 0);
+    }
+
+    @Override
+    public CompositionBuilder<MusicEditorModel> addRepetition(int beat, int rewind, int loops,
+                                                              int ending) {
+      this.composition.addFeature(new Repetition(rewind, loops == 0 ? 1 : loops, ending), beat);
+      return this;
+    }
   }
 }
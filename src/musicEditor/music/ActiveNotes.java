@@ -0,0 +1,235 @@
+package musicEditor.music;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of which pitches of one timbre of a composition are sounding at a beat that moves.
+ * <p>The tones of the timbre are kept as a sorted list of events, a note on at the start of each
+ * tone and a note off at its end, each packed into a long as
+ * <code>(beat &lt;&lt; 8) | (on ? 0x80 : 0) | midiPitch</code> so that at any beat the offs come
+ * before the ons. Moving the beat applies the events passed over, or takes them back when moving
+ * backwards, so following playback costs only the events crossed. A jump across more than
+ * {@link #MAX_EVENTS_CROSSED} events instead reads the tones sounding at the new beat straight
+ * from the snapshot. Tones of no duration never sound and have no events.</p>
+ * <p>When the snapshot changes, the events of only the tones added or removed are merged into
+ * the list.</p>
+ */
+public final class ActiveNotes {
+  /**
+   * The most events a move applies one by one before the pitches sounding are read afresh.
+   */
+  public static final int MAX_EVENTS_CROSSED = 512;
+
+  private long[] events;
+  private int size;
+  private CompositionSnapshot snapshot;
+  private int timbre;
+  private int beat;
+  // the index of the first event after the beat
+  private int next;
+  private final long[] sounding;
+
+  /**
+   * Constructs an ActiveNotes of no tones at beat zero.
+   */
+  public ActiveNotes() {
+    this.events = new long[0];
+    this.size = 0;
+    this.snapshot = null;
+    this.timbre = 0;
+    this.beat = 0;
+    this.next = 0;
+    this.sounding = new long[2];
+  }
+
+  /**
+   * Brings the events up to date with the tones of the given timbre in the given snapshot, and
+   * marks in the given bits the pitches that started or stopped sounding at the current beat as
+   * a result. The bits of pitch p are bit p % 64 of word p / 64.
+   * @param snapshot the snapshot of the composition
+   * @param timbre the timbre whose tones are followed
+   * @param changed two words whose bits are set for each pitch that changed
+   * @return true if any pitch changed
+   */
+  public boolean update(CompositionSnapshot snapshot, int timbre, long[] changed) {
+    if (snapshot == this.snapshot && timbre == this.timbre) {
+      return false;
+    }
+    if (this.snapshot == null || timbre != this.timbre) {
+      EventList all = new EventList();
+      snapshot.forEachToneBetween(timbre, 0, Integer.MAX_VALUE,
+          (t, midiPitch, start, duration, volume) -> all.add(midiPitch, start, duration));
+      this.events = Arrays.copyOf(all.events, all.size);
+      this.size = all.size;
+      Arrays.sort(this.events, 0, this.size);
+    }
+    else {
+      int current = this.timbre;
+      EventList added = new EventList();
+      EventList removed = new EventList();
+      snapshot.forEachDifference(this.snapshot,
+          (t, midiPitch, start, duration, volume) -> {
+            if (t == current) {
+              added.add(midiPitch, start, duration);
+            }
+          },
+          (t, midiPitch, start, duration, volume) -> {
+            if (t == current) {
+              removed.add(midiPitch, start, duration);
+            }
+          });
+      this.merge(added, removed);
+    }
+    this.snapshot = snapshot;
+    this.timbre = timbre;
+    return this.seek(this.beat, changed);
+  }
+
+  /**
+   * Moves to the given beat, marking in the given bits the pitches that started or stopped
+   * sounding. The bits of pitch p are bit p % 64 of word p / 64.
+   * @param beat the beat to move to
+   * @param changed two words whose bits are set for each pitch that changed
+   * @return true if any pitch changed
+   */
+  public boolean moveTo(int beat, long[] changed) {
+    if (beat == this.beat) {
+      changed[0] = 0;
+      changed[1] = 0;
+      return false;
+    }
+    int target = this.lowerBound((long) (beat + 1) << 8);
+    if (Math.abs(target - this.next) > MAX_EVENTS_CROSSED) {
+      return this.seek(beat, changed);
+    }
+    long before0 = this.sounding[0];
+    long before1 = this.sounding[1];
+    for (; this.next < target; this.next++) {
+      this.apply(this.events[this.next], true);
+    }
+    for (; this.next > target; this.next--) {
+      this.apply(this.events[this.next - 1], false);
+    }
+    this.beat = beat;
+    changed[0] = before0 ^ this.sounding[0];
+    changed[1] = before1 ^ this.sounding[1];
+    return (changed[0] | changed[1]) != 0;
+  }
+
+  /**
+   * Gets the beat the pitches sounding are kept for.
+   * @return the current beat
+   */
+  public int getBeat() {
+    return this.beat;
+  }
+
+  /**
+   * Returns true if a tone of the given pitch is sounding at the current beat.
+   * @param midiPitch the MIDI pitch
+   * @return whether the pitch is sounding
+   */
+  public boolean isSounding(int midiPitch) {
+    return (this.sounding[midiPitch >> 6] & 1L << midiPitch) != 0;
+  }
+
+  /**
+   * Reads the pitches sounding at the given beat straight from the snapshot, marking those that
+   * changed.
+   */
+  private boolean seek(int beat, long[] changed) {
+    long before0 = this.sounding[0];
+    long before1 = this.sounding[1];
+    this.sounding[0] = 0;
+    this.sounding[1] = 0;
+    if (this.snapshot != null) {
+      this.snapshot.forEachToneBetween(this.timbre, beat, beat + 1,
+          (t, midiPitch, start, duration, volume) -> {
+            if (duration > 0) {
+              this.sounding[midiPitch >> 6] |= 1L << midiPitch;
+            }
+          });
+    }
+    this.beat = beat;
+    this.next = this.lowerBound((long) (beat + 1) << 8);
+    changed[0] = before0 ^ this.sounding[0];
+    changed[1] = before1 ^ this.sounding[1];
+    return (changed[0] | changed[1]) != 0;
+  }
+
+  /**
+   * Applies the given event, or takes it back.
+   */
+  private void apply(long event, boolean forward) {
+    int midiPitch = (int) (event & 0x7F);
+    boolean on = (event & 0x80) != 0;
+    if (on == forward) {
+      this.sounding[midiPitch >> 6] |= 1L << midiPitch;
+    }
+    else {
+      this.sounding[midiPitch >> 6] &= ~(1L << midiPitch);
+    }
+  }
+
+  /**
+   * Returns the index of the first event not less than the given event.
+   */
+  private int lowerBound(long event) {
+    int index = Arrays.binarySearch(this.events, 0, this.size, event);
+    return index < 0 ? -index - 1 : index;
+  }
+
+  /**
+   * Takes the events of the given removed tones out of the list and merges in those of the given
+   * added tones.
+   */
+  private void merge(EventList added, EventList removed) {
+    Arrays.sort(added.events, 0, added.size);
+    Arrays.sort(removed.events, 0, removed.size);
+    long[] merged = new long[this.size - removed.size + added.size];
+    int count = 0;
+    int a = 0;
+    int r = 0;
+    for (int i = 0; i < this.size; i++) {
+      long event = this.events[i];
+      while (r < removed.size && removed.events[r] < event) {
+        r++;
+      }
+      if (r < removed.size && removed.events[r] == event) {
+        r++;
+        continue;
+      }
+      while (a < added.size && added.events[a] < event) {
+        merged[count++] = added.events[a++];
+      }
+      merged[count++] = event;
+    }
+    while (a < added.size) {
+      merged[count++] = added.events[a++];
+    }
+    this.events = merged;
+    this.size = count;
+  }
+
+  /**
+   * A growable list of the events of tones.
+   */
+  private static final class EventList {
+    private long[] events = new long[16];
+    private int size;
+
+    /**
+     * Adds the note on and note off of the given tone, unless it has no duration.
+     */
+    private void add(int midiPitch, int start, int duration) {
+      if (duration <= 0) {
+        return;
+      }
+      if (this.size + 2 > this.events.length) {
+        this.events = Arrays.copyOf(this.events, this.events.length * 2);
+      }
+      this.events[this.size++] = (long) start << 8 | 0x80 | midiPitch;
+      this.events[this.size++] = (long) (start + duration) << 8 | midiPitch;
+    }
+  }
+}
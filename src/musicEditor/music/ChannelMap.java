@@ -0,0 +1,82 @@
+package musicEditor.music;
+
+import java.util.Arrays;
+
+/**
+ * Assigns MIDI channels to timbres, each timbre taking the next channel the first time it is
+ * asked for. The percussion channel is skipped, and channels wrap around after sixteen.
+ */
+public final class ChannelMap {
+  /**
+   * The channel that plays percussion whatever its program, which is never assigned.
+   */
+  public static final int PERCUSSION_CHANNEL = 9;
+
+  /**
+   * The number of channels that can be assigned, after which timbres share channels.
+   */
+  public static final int MELODIC_CHANNELS = 15;
+
+  private final int[] channels;
+  private int nextChannel;
+
+  /**
+   * Constructs a ChannelMap with no timbre assigned.
+   */
+  public ChannelMap() {
+    this.channels = new int[129];
+    this.clear();
+  }
+
+  /**
+   * Forgets every assigned channel, so the next timbre asked for takes the first channel.
+   */
+  public void clear() {
+    Arrays.fill(this.channels, -1);
+    this.nextChannel = 0;
+  }
+
+  /**
+   * Gets the channel of the given timbre, first assigning it the next channel if it has none.
+   * @param timbre the timbre
+   * @return the channel of the timbre
+   */
+  public int channelOf(int timbre) {
+    if (this.channels[timbre] == -1) {
+      this.channels[timbre] = this.takeChannel();
+    }
+    return this.channels[timbre];
+  }
+
+  /**
+   * Assigns channels afresh to every timbre of the given snapshot in order of timbre, and returns
+   * true if any of them is on a channel it was not on before. Timbres not in the snapshot keep
+   * whatever channel they had, so their tones that are still sounding can be released on it.
+   * @param snapshot the snapshot whose timbres are assigned
+   * @return whether any timbre's channel has changed or been assigned for the first time
+   */
+  public boolean assignAll(CompositionSnapshot snapshot) {
+    this.nextChannel = 0;
+    boolean changed = false;
+    for (int timbre = 1; timbre <= 128; timbre++) {
+      if (!snapshot.range(timbre).isEmpty()) {
+        int channel = this.takeChannel();
+        changed |= this.channels[timbre] != channel;
+        this.channels[timbre] = channel;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Returns the next channel and moves past it, skipping the percussion channel.
+   */
+  private int takeChannel() {
+    int channel = this.nextChannel;
+    this.nextChannel = (this.nextChannel + 1) % 16;
+    if (this.nextChannel == PERCUSSION_CHANNEL) {
+      this.nextChannel++;
+    }
+    return channel;
+  }
+}
@@ -0,0 +1,243 @@
+package musicEditor.music;
+
+import musicEditor.util.NoteBuffer;
+
+import java.util.*;
+
+/**
+ * Represents a composition of music whose tones are stored only in its
+ * {@link CompositionSnapshot}, in parallel primitive arrays, rather than also as Tone objects
+ * inside maps of MusicSheets and MusicRows.
+ * <p>A snapshot keeps the start beats, durations, and volumes of each row in chunks of parallel
+ * int arrays, with its rows in order of timbre, then pitch, so the tones are sorted by timbre,
+ * then pitch, then start beat, and their timbre and pitch are given by the row they are in. Every
+ * edit publishes a new snapshot anyway, so the latest snapshot is the only copy of the tones:
+ * lookups are binary searches over its rows, visiting every tone is a single sequential pass, and
+ * adding a tone copies only the chunk it is added to.</p>
+ * <p>Tone objects are only created when one is asked for through the MusicComposition API.
+ * Features are stored the same way as in a MusicComposition.</p>
+ * <p>The length of the tones and the pitch range of each timbre are kept up to date as tones are
+ * added and removed.</p>
+ */
+public class ColumnarComposition extends MusicComposition {
+  private int tonesLength;
+  private CompositionSnapshot sheetsSnapshot;
+  private Collection<MusicSheet> sheets;
+
+  /**
+   * Constructs a new empty ColumnarComposition.
+   */
+  public ColumnarComposition() {
+    super();
+    this.tonesLength = 0;
+    this.sheetsSnapshot = null;
+    this.sheets = Collections.emptyList();
+  }
+
+  /**
+   * Constructs a new ColumnarComposition holding the same tones and features as the given
+   * composition. The tones are added in a single batch.
+   * @param composition the composition whose tones and features are copied
+   */
+  public ColumnarComposition(MusicComposition composition) {
+    this();
+    NoteBuffer notes = new NoteBuffer();
+    composition.snapshot().forEachTone((timbre, midiPitch, start, duration, volume) ->
+        notes.add(start, start + duration, timbre, midiPitch, volume));
+    this.addTones(notes);
+    for (Map.Entry<Integer, Feature> e : composition.getFeatures().entrySet()) {
+      this.addFeature(e.getValue(), e.getKey());
+    }
+  }
+
+  /**
+   * Gets the music sheets that make up this composition in order of timbre. The sheets are built
+   * from the latest snapshot the first time they are asked for after a change and kept until the
+   * next change, so changes to them are not reflected in this composition. Prefer
+   * {@link #forEachTone(ToneVisitor)} for reading every tone.
+   * @return a collection of the music sheets in this composition
+   */
+  @Override
+  public Collection<MusicSheet> getSheets() {
+    CompositionSnapshot snapshot = this.snapshot();
+    if (snapshot != this.sheetsSnapshot) {
+      NoteBuffer notes = new NoteBuffer();
+      snapshot.forEachTone((timbre, midiPitch, start, duration, volume) ->
+          notes.add(start, start + duration, timbre, midiPitch, volume));
+      SortedMap<Integer, MusicSheet> sheets = new TreeMap<>();
+      int i = 0;
+      while (i < notes.size()) {
+        int timbre = notes.getTimbre(i);
+        int end = i + 1;
+        while (end < notes.size() && notes.getTimbre(end) == timbre) {
+          end++;
+        }
+        MusicSheet sheet = new MusicSheet(timbre);
+        sheet.addTones(notes, i, end);
+        sheets.put(timbre, sheet);
+        i = end;
+      }
+      this.sheets = Collections.unmodifiableCollection(sheets.values());
+      this.sheetsSnapshot = snapshot;
+    }
+    return this.sheets;
+  }
+
+  /**
+   * Adds the given tone to the composition.
+   * @param tone the tone being added
+   * @throws IllegalArgumentException if the tone would overlap another tone of the same timbre
+   *     and pitch
+   */
+  @Override
+  public void addTone(Tone tone) {
+    int timbre = tone.getTimbre();
+    int midiPitch = tone.midiPitch();
+    int beat = tone.getStart();
+    this.checkOverlap(timbre, midiPitch, beat, tone.getDuration());
+    if (beat + tone.getDuration() > this.tonesLength) {
+      this.tonesLength = beat + tone.getDuration();
+    }
+    this.publishAdded(timbre, midiPitch, beat, tone.getDuration(), tone.getVolume());
+  }
+
+  /**
+   * Adds every note in the given buffer to this composition at once. The buffer is sorted and
+   * checked for overlaps, then merged into the rows of the snapshot, building again only the
+   * chunks the notes fall among. Either every note is added or, if any note is invalid or would
+   * overlap another tone, none are.
+   * @param notes the notes being added, which are sorted by this method
+   * @throws IllegalArgumentException if a note is invalid or would cause an overlap
+   */
+  @Override
+  public void addTones(NoteBuffer notes) {
+    notes.sort();
+    checkNotes(notes);
+    for (int i = 0; i < notes.size(); i++) {
+      try {
+        this.checkOverlap(notes.getTimbre(i), notes.getPitch(i),
+            notes.getStart(i), notes.getEnd(i) - notes.getStart(i));
+      } catch (IllegalArgumentException e) {
+        throw noteError(notes, i, e.getMessage());
+      }
+    }
+    for (int i = 0; i < notes.size(); i++) {
+      if (notes.getEnd(i) > this.tonesLength) {
+        this.tonesLength = notes.getEnd(i);
+      }
+    }
+    this.publishAdded(notes);
+  }
+
+  /**
+   * Checks that a tone with the given timbre, pitch, start, and duration would not overlap any
+   * tone of the same timbre and pitch in this composition. Only the closest tone on either side
+   * of the given beat can collide.
+   * @param timbre the timbre of the tone being checked
+   * @param midiPitch the MIDI pitch of the tone being checked
+   * @param beat the start of the tone being checked
+   * @param duration the duration of the tone being checked
+   * @throws IllegalArgumentException if the tone would cause an overlap
+   */
+  private void checkOverlap(int timbre, int midiPitch, int beat, int duration) {
+    CompositionSnapshot snapshot = this.snapshot();
+    int size = snapshot.rowSize(timbre, midiPitch);
+    int index = snapshot.lowerBound(timbre, midiPitch, beat);
+    // checks to see if the given beat is already taken
+    if (index < size && snapshot.startAt(timbre, midiPitch, index) == beat) {
+      throw new IllegalArgumentException("tone already exists at given beat");
+    }
+    // checks to see if the previous tone would overlap the given tone
+    if (index > 0 && snapshot.startAt(timbre, midiPitch, index - 1)
+        + snapshot.durationAt(timbre, midiPitch, index - 1) - 1 >= beat) {
+      throw new IllegalArgumentException("previous tone overlaps given tone");
+    }
+    // checks to see if the given tone would overlap the next tone
+    if (index < size && beat + duration - 1 >= snapshot.startAt(timbre, midiPitch, index)) {
+      throw new IllegalArgumentException("given tone overlaps later tone");
+    }
+  }
+
+  @Override
+  public Tone removeTone(int timbre, Pitch pitch, int beat) {
+    Tone result = this.getTone(timbre, pitch, beat);
+    if (result != null) {
+      this.removed(result);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean removeTone(Tone tone) {
+    Tone stored = this.getTone(tone.getTimbre(), tone.getPitch(), tone.getStart());
+    if (stored == null
+        || stored.getDuration() != tone.getDuration()
+        || stored.getVolume() != tone.getVolume()) {
+      return false;
+    }
+    this.removed(tone);
+    return true;
+  }
+
+  /**
+   * Updates the length of this composition for the removal of the given tone, which is in it, and
+   * publishes a snapshot without the tone.
+   * @param tone the tone being removed
+   */
+  private void removed(Tone tone) {
+    if (tone.getStart() + tone.getDuration() == this.tonesLength) {
+      this.tonesLength = this.snapshot().tonesLengthWithout(
+          tone.getTimbre(), tone.midiPitch(), tone.getStart());
+    }
+    this.publishRemoved(tone.getTimbre(), tone.midiPitch(), tone.getStart());
+  }
+
+  @Override
+  public Tone getTone(int timbre, Pitch pitch, int beat) {
+    CompositionSnapshot snapshot = this.snapshot();
+    int midiPitch = pitch.midiPitch();
+    int index = snapshot.lowerBound(timbre, midiPitch, beat);
+    if (index == snapshot.rowSize(timbre, midiPitch)
+        || snapshot.startAt(timbre, midiPitch, index) != beat) {
+      return null;
+    }
+    return new Tone(pitch, beat, snapshot.durationAt(timbre, midiPitch, index),
+        snapshot.volumeAt(timbre, midiPitch, index), timbre);
+  }
+
+  @Override
+  public void forEachTone(ToneVisitor visitor) {
+    this.snapshot().forEachTone(visitor);
+  }
+
+  @Override
+  public void forEachTone(int timbre, Pitch pitch, ToneVisitor visitor) {
+    this.snapshot().forEachTone(timbre, pitch, visitor);
+  }
+
+  @Override
+  public void forEachToneBetween(int fromBeat, int toBeat, ToneVisitor visitor) {
+    this.snapshot().forEachToneBetween(fromBeat, toBeat, visitor);
+  }
+
+  @Override
+  public void forEachToneBetween(int timbre, Pitch lowest, Pitch highest,
+                                 int fromBeat, int toBeat, ToneVisitor visitor) {
+    this.snapshot().forEachToneBetween(timbre, lowest, highest, fromBeat, toBeat, visitor);
+  }
+
+  @Override
+  protected boolean hasTones() {
+    return !this.snapshot().isEmpty();
+  }
+
+  @Override
+  protected int tonesLength() {
+    return this.tonesLength;
+  }
+
+  @Override
+  public SortedSet<Pitch> range(int timbre) {
+    return this.snapshot().range(timbre);
+  }
+}
@@ -0,0 +1,814 @@
+package musicEditor.music;
+
+import musicEditor.util.NoteBuffer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedSet;
+
+/**
+ * Represents an immutable view of the tones of a MusicComposition at one moment in time.
+ * <p>A snapshot is made of up to 128 sheets, one per timbre, each holding up to 128 rows, one
+ * per pitch. Each row keeps the start beats, durations, and volumes of its tones sorted by start
+ * beat in chunks of parallel arrays of at most {@link #MAX_CHUNK} tones. Changing a composition
+ * produces a new snapshot that copies only the chunk that changed and the small arrays leading to
+ * it; every other chunk, row, and sheet is shared with the previous snapshot, so adding a tone
+ * costs the same however long its row already is. Snapshots can therefore be read from any thread
+ * without locking while the composition they came from goes on being edited.</p>
+ * <p>Every snapshot carries a version that is greater than that of the snapshot it was derived
+ * from, so readers can cheaply tell whether anything has changed.</p>
+ */
+public final class CompositionSnapshot {
+  /**
+   * The snapshot of a composition with no tones.
+   */
+  public static final CompositionSnapshot EMPTY =
+      new CompositionSnapshot(0, new Sheet[129], 0);
+  /**
+   * The most tones a chunk of a row holds. Notes added in a batch are packed into chunks half
+   * this size, which leaves room for later tones to be added without splitting them.
+   */
+  public static final int MAX_CHUNK = 128;
+
+  private final long version;
+  private final Sheet[] sheets;
+  private final int length;
+
+  /**
+   * Constructs a CompositionSnapshot with the given version, sheets indexed by timbre, and length.
+   */
+  private CompositionSnapshot(long version, Sheet[] sheets, int length) {
+    this.version = version;
+    this.sheets = sheets;
+    this.length = length;
+  }
+
+  /**
+   * Gets the version of this snapshot.
+   * @return the version of this snapshot
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns the number of beats within the composition this snapshot was taken of.
+   * @return the number of beats in the composition
+   */
+  public int length() {
+    return this.length;
+  }
+
+  /**
+   * Returns true if this snapshot contains no tones.
+   * @return whether this snapshot contains tones
+   */
+  public boolean isEmpty() {
+    for (Sheet sheet : this.sheets) {
+      if (sheet != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the full sorted range of Pitches of the sheet with the given timbre from lowest
+   * pitch to highest pitch. Returns an empty set if there is no such sheet. The returned set is
+   * read-only.
+   * @param timbre the timbre of the sheet
+   * @return a full sorted range of Pitches in the sheet
+   */
+  public SortedSet<Pitch> range(int timbre) {
+    Sheet sheet = this.sheet(timbre);
+    if (sheet == null) {
+      return Collections.emptySortedSet();
+    }
+    return sheet.range;
+  }
+
+  /**
+   * Visits every tone in this snapshot in order of timbre, then pitch, then start beat.
+   * @param visitor the visitor given each tone
+   */
+  public void forEachTone(ToneVisitor visitor) {
+    for (int timbre = 1; timbre < this.sheets.length; timbre++) {
+      Sheet sheet = this.sheets[timbre];
+      for (int midiPitch = 0; sheet != null && midiPitch < sheet.rows.length; midiPitch++) {
+        Row row = sheet.rows[midiPitch];
+        if (row != null) {
+          row.forEachTone(timbre, midiPitch, 0, row.size(), visitor);
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits every tone of the given timbre and pitch in this snapshot in order of start beat.
+   * @param timbre the timbre of the tones being visited
+   * @param pitch the pitch of the tones being visited
+   * @param visitor the visitor given each tone
+   */
+  public void forEachTone(int timbre, Pitch pitch, ToneVisitor visitor) {
+    Row row = this.row(timbre, pitch.midiPitch());
+    if (row != null) {
+      row.forEachTone(timbre, pitch.midiPitch(), 0, row.size(), visitor);
+    }
+  }
+
+  /**
+   * Visits every tone in this snapshot that is sounding at any beat from the given beat up to but
+   * not including the other given beat, in order of timbre, then pitch, then start beat.
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(int fromBeat, int toBeat, ToneVisitor visitor) {
+    for (int timbre = 1; timbre < this.sheets.length; timbre++) {
+      this.forEachToneBetween(timbre, Pitch.of(0), Pitch.of(127), fromBeat, toBeat, visitor);
+    }
+  }
+
+  /**
+   * Visits every tone of the given timbre that is sounding at any beat from the given beat up to
+   * but not including the other given beat, in order of pitch, then start beat.
+   * @param timbre the timbre of the tones being visited
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(int timbre, int fromBeat, int toBeat, ToneVisitor visitor) {
+    this.forEachToneBetween(timbre, Pitch.of(0), Pitch.of(127), fromBeat, toBeat, visitor);
+  }
+
+  /**
+   * Visits every tone of the given timbre whose pitch is between the given pitches inclusive and
+   * that is sounding at any beat from the given beat up to but not including the other given
+   * beat, in order of pitch, then start beat.
+   * @param timbre the timbre of the tones being visited
+   * @param lowest the lowest pitch of the tones being visited
+   * @param highest the highest pitch of the tones being visited
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(int timbre, Pitch lowest, Pitch highest,
+                                 int fromBeat, int toBeat, ToneVisitor visitor) {
+    Sheet sheet = this.sheet(timbre);
+    if (sheet == null || fromBeat >= toBeat) {
+      return;
+    }
+    for (int midiPitch = lowest.midiPitch(); midiPitch <= highest.midiPitch(); midiPitch++) {
+      Row row = sheet.rows[midiPitch];
+      if (row != null) {
+        // tones of a row never overlap, so only the tone before the window can reach into it
+        int first = row.lowerBound(fromBeat);
+        if (first > 0 && row.startAt(first - 1) + row.durationAt(first - 1) > fromBeat) {
+          first--;
+        }
+        row.forEachTone(timbre, midiPitch, first, row.lowerBound(toBeat), visitor);
+      }
+    }
+  }
+
+  /**
+   * Visits the tones of this snapshot that are not in the given snapshot with one visitor, and the
+   * tones of the given snapshot that are not in this one with the other, in order of timbre, then
+   * pitch, then start beat. A tone whose duration or volume changed is visited as removed and then
+   * added. Sheets and rows shared by the two snapshots are skipped without being read, so when one
+   * snapshot was derived from the other the cost depends only on the rows that changed.
+   * @param previous the snapshot this one is compared against
+   * @param added the visitor given each tone only in this snapshot
+   * @param removed the visitor given each tone only in the given snapshot
+   */
+  public void forEachDifference(CompositionSnapshot previous, ToneVisitor added,
+                                ToneVisitor removed) {
+    for (int timbre = 1; timbre < this.sheets.length; timbre++) {
+      Sheet sheet = this.sheets[timbre];
+      Sheet previousSheet = previous.sheets[timbre];
+      if (sheet == previousSheet) {
+        continue;
+      }
+      for (int midiPitch = 0; midiPitch < 128; midiPitch++) {
+        Row row = sheet == null ? null : sheet.rows[midiPitch];
+        Row previousRow = previousSheet == null ? null : previousSheet.rows[midiPitch];
+        if (row != previousRow) {
+          Row.forEachDifference(timbre, midiPitch, row == null ? Row.EMPTY : row,
+              previousRow == null ? Row.EMPTY : previousRow, added, removed);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tones of the given timbre and pitch in this snapshot. Together with
+   * {@link #startAt(int, int, int)}, {@link #durationAt(int, int, int)}, and
+   * {@link #volumeAt(int, int, int)} this allows a row to be read one tone at a time in order of
+   * start beat, so that several rows can be walked side by side.
+   * @param timbre the timbre of the row
+   * @param midiPitch the MIDI pitch of the row
+   * @return the number of tones in the row
+   */
+  public int rowSize(int timbre, int midiPitch) {
+    Row row = this.row(timbre, midiPitch);
+    return row == null ? 0 : row.size();
+  }
+
+  /**
+   * Gets the start beat of the tone at the given index of the row of the given timbre and pitch.
+   * @throws IndexOutOfBoundsException if there is no tone at that index
+   */
+  public int startAt(int timbre, int midiPitch, int index) {
+    return this.existingRow(timbre, midiPitch, index).startAt(index);
+  }
+
+  /**
+   * Gets the duration of the tone at the given index of the row of the given timbre and pitch.
+   * @throws IndexOutOfBoundsException if there is no tone at that index
+   */
+  public int durationAt(int timbre, int midiPitch, int index) {
+    return this.existingRow(timbre, midiPitch, index).durationAt(index);
+  }
+
+  /**
+   * Gets the volume of the tone at the given index of the row of the given timbre and pitch.
+   * @throws IndexOutOfBoundsException if there is no tone at that index
+   */
+  public int volumeAt(int timbre, int midiPitch, int index) {
+    return this.existingRow(timbre, midiPitch, index).volumeAt(index);
+  }
+
+  /**
+   * Returns the index in the row of the given timbre and pitch of the first tone starting at or
+   * after the given beat, or the size of the row if there is none.
+   * @param timbre the timbre of the row
+   * @param midiPitch the MIDI pitch of the row
+   * @param beat the beat being searched for
+   * @return the index of the first tone at or after the beat
+   */
+  int lowerBound(int timbre, int midiPitch, int beat) {
+    Row row = this.row(timbre, midiPitch);
+    return row == null ? 0 : row.lowerBound(beat);
+  }
+
+  /**
+   * Returns the beat at which the last tone of this snapshot ends, leaving out the tone of the
+   * given timbre and pitch starting at the given beat. Since the tones of a row never overlap,
+   * only the last tone of each row is read.
+   * @param timbre the timbre of the tone left out
+   * @param midiPitch the MIDI pitch of the tone left out
+   * @param start the start beat of the tone left out
+   * @return the number of beats spanned by the other tones
+   */
+  int tonesLengthWithout(int timbre, int midiPitch, int start) {
+    int result = 0;
+    for (int t = 1; t < this.sheets.length; t++) {
+      Sheet sheet = this.sheets[t];
+      for (int p = 0; sheet != null && p < sheet.rows.length; p++) {
+        Row row = sheet.rows[p];
+        if (row == null) {
+          continue;
+        }
+        int last = row.size() - 1;
+        if (t == timbre && p == midiPitch && row.startAt(last) == start) {
+          last--;
+        }
+        if (last >= 0) {
+          result = Math.max(result, row.startAt(last) + row.durationAt(last));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a snapshot that also holds the given tone. The tone must already have been checked
+   * against the tones of this snapshot.
+   * @param timbre the timbre of the tone
+   * @param midiPitch the MIDI pitch of the tone
+   * @param start the start beat of the tone
+   * @param duration the duration of the tone
+   * @param volume the volume of the tone
+   * @param length the length of the composition once the tone is added
+   * @return the new snapshot
+   */
+  CompositionSnapshot withTone(int timbre, int midiPitch, int start, int duration, int volume,
+                               int length) {
+    Row row = this.row(timbre, midiPitch);
+    if (row == null) {
+      row = Row.EMPTY;
+    }
+    return this.withRow(timbre, midiPitch, row.with(start, duration, volume), length);
+  }
+
+  /**
+   * Returns a snapshot without the tone of the given timbre and pitch starting at the given beat.
+   * Returns this snapshot with the given length if there is no such tone.
+   * @param timbre the timbre of the tone
+   * @param midiPitch the MIDI pitch of the tone
+   * @param start the start beat of the tone
+   * @param length the length of the composition once the tone is removed
+   * @return the new snapshot
+   */
+  CompositionSnapshot withoutTone(int timbre, int midiPitch, int start, int length) {
+    Row row = this.row(timbre, midiPitch);
+    if (row == null) {
+      return this.withLength(length);
+    }
+    return this.withRow(timbre, midiPitch, row.without(start), length);
+  }
+
+  /**
+   * Returns a snapshot that also holds every note of the given buffer. The notes must be sorted
+   * by timbre, then pitch, then start beat, and already checked against each other and against
+   * the tones of this snapshot.
+   * @param notes the sorted notes being added
+   * @param length the length of the composition once the notes are added
+   * @return the new snapshot
+   */
+  CompositionSnapshot withTones(NoteBuffer notes, int length) {
+    Sheet[] sheets = this.sheets.clone();
+    int i = 0;
+    while (i < notes.size()) {
+      int timbre = notes.getTimbre(i);
+      int midiPitch = notes.getPitch(i);
+      int end = i + 1;
+      while (end < notes.size()
+          && notes.getTimbre(end) == timbre && notes.getPitch(end) == midiPitch) {
+        end++;
+      }
+      Row row = sheets[timbre] == null ? null : sheets[timbre].rows[midiPitch];
+      sheets[timbre] = Sheet.with(sheets[timbre], midiPitch,
+          (row == null ? Row.EMPTY : row).with(notes, i, end));
+      i = end;
+    }
+    return new CompositionSnapshot(this.version + 1, sheets, length);
+  }
+
+  /**
+   * Returns a snapshot with the same tones as this one and the given length.
+   * @param length the length of the composition
+   * @return the new snapshot
+   */
+  CompositionSnapshot withLength(int length) {
+    return new CompositionSnapshot(this.version + 1, this.sheets, length);
+  }
+
+  /**
+   * Returns a snapshot in which the row of the given timbre and pitch is replaced by the given row,
+   * sharing every other row with this snapshot.
+   */
+  private CompositionSnapshot withRow(int timbre, int midiPitch, Row row, int length) {
+    Sheet[] sheets = this.sheets.clone();
+    sheets[timbre] = Sheet.with(sheets[timbre], midiPitch, row);
+    return new CompositionSnapshot(this.version + 1, sheets, length);
+  }
+
+  /**
+   * Gets the sheet of the given timbre, or null if there is none.
+   */
+  private Sheet sheet(int timbre) {
+    if (timbre < 1 || timbre >= this.sheets.length) {
+      return null;
+    }
+    return this.sheets[timbre];
+  }
+
+  /**
+   * Gets the row of the given timbre and pitch, or null if there is none.
+   */
+  private Row row(int timbre, int midiPitch) {
+    Sheet sheet = this.sheet(timbre);
+    if (sheet == null || midiPitch < 0 || midiPitch >= sheet.rows.length) {
+      return null;
+    }
+    return sheet.rows[midiPitch];
+  }
+
+  /**
+   * Gets the row of the given timbre and pitch if it has a tone at the given index.
+   * @throws IndexOutOfBoundsException if it does not
+   */
+  private Row existingRow(int timbre, int midiPitch, int index) {
+    Row row = this.row(timbre, midiPitch);
+    if (row == null || index < 0 || index >= row.size()) {
+      throw new IndexOutOfBoundsException("no tone at index " + index + " of timbre " + timbre
+          + " and pitch " + midiPitch);
+    }
+    return row;
+  }
+
+  /**
+   * The rows of one timbre, indexed by MIDI pitch, along with their full pitch range.
+   */
+  private static final class Sheet {
+    private final Row[] rows;
+    private final SortedSet<Pitch> range;
+
+    private Sheet(Row[] rows, SortedSet<Pitch> range) {
+      this.rows = rows;
+      this.range = range;
+    }
+
+    /**
+     * Returns a copy of the given sheet with the row of the given pitch replaced by the given row.
+     * Returns null if the resulting sheet would have no rows. The given sheet may be null.
+     */
+    private static Sheet with(Sheet sheet, int midiPitch, Row row) {
+      Row[] rows = sheet == null ? new Row[128] : sheet.rows.clone();
+      rows[midiPitch] = row;
+      int lowest = 0;
+      while (lowest < rows.length && rows[lowest] == null) {
+        lowest++;
+      }
+      if (lowest == rows.length) {
+        return null;
+      }
+      int highest = rows.length - 1;
+      while (rows[highest] == null) {
+        highest--;
+      }
+      SortedSet<Pitch> range = sheet == null ? Collections.emptySortedSet() : sheet.range;
+      if (range.isEmpty()
+          || range.first().midiPitch() != lowest || range.last().midiPitch() != highest) {
+        range = MusicSheet.fullRange(lowest, highest);
+      }
+      return new Sheet(rows, range);
+    }
+  }
+
+  /**
+   * The tones of one timbre and pitch in order of start beat, kept in chunks of parallel arrays.
+   * A changed row copies only the chunks that changed and its small tables of chunks, and shares
+   * every other chunk with the row it was made from.
+   */
+  private static final class Row {
+    private static final Row EMPTY = new Row(new Chunk[0], new int[] {0});
+
+    private final Chunk[] chunks;
+    // offsets[c] is the index of the first tone of chunk c, and offsets[chunks.length] the size
+    private final int[] offsets;
+
+    private Row(Chunk[] chunks, int[] offsets) {
+      this.chunks = chunks;
+      this.offsets = offsets;
+    }
+
+    /**
+     * Returns the number of tones in this row.
+     */
+    private int size() {
+      return this.offsets[this.chunks.length];
+    }
+
+    /**
+     * Returns the index of the chunk holding the tone at the given index.
+     */
+    private int chunkOf(int index) {
+      int low = 0;
+      int high = this.chunks.length - 1;
+      while (low < high) {
+        int mid = (low + high + 1) >>> 1;
+        if (this.offsets[mid] <= index) {
+          low = mid;
+        }
+        else {
+          high = mid - 1;
+        }
+      }
+      return low;
+    }
+
+    private int startAt(int index) {
+      int c = this.chunkOf(index);
+      return this.chunks[c].starts[index - this.offsets[c]];
+    }
+
+    private int durationAt(int index) {
+      int c = this.chunkOf(index);
+      return this.chunks[c].durations[index - this.offsets[c]];
+    }
+
+    private int volumeAt(int index) {
+      int c = this.chunkOf(index);
+      return this.chunks[c].volumes[index - this.offsets[c]];
+    }
+
+    /**
+     * Returns the index of the first tone starting at or after the given beat.
+     */
+    private int lowerBound(int beat) {
+      // finds the first chunk whose last tone starts at or after the beat
+      int low = 0;
+      int high = this.chunks.length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        int[] starts = this.chunks[mid].starts;
+        if (starts[starts.length - 1] < beat) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      if (low == this.chunks.length) {
+        return this.size();
+      }
+      return this.offsets[low] + this.chunks[low].lowerBound(beat);
+    }
+
+    /**
+     * Visits the tones between the given indices in order of start beat.
+     */
+    private void forEachTone(int timbre, int midiPitch, int from, int to, ToneVisitor visitor) {
+      if (from >= to) {
+        return;
+      }
+      int c = this.chunkOf(from);
+      int i = from - this.offsets[c];
+      for (int index = from; index < to; index++) {
+        Chunk chunk = this.chunks[c];
+        visitor.visit(timbre, midiPitch, chunk.starts[i], chunk.durations[i], chunk.volumes[i]);
+        if (++i == chunk.starts.length) {
+          c++;
+          i = 0;
+        }
+      }
+    }
+
+    /**
+     * Visits the tones of the given row that are not in the given previous row with one visitor,
+     * and those of the previous row that are not in the given row with the other, by merging the
+     * two rows in order of start beat. Chunks the rows share hold the same tones in both and are
+     * skipped without being read.
+     */
+    private static void forEachDifference(int timbre, int midiPitch, Row row, Row previous,
+                                          ToneVisitor added, ToneVisitor removed) {
+      int c = 0;
+      int i = 0;
+      int d = 0;
+      int j = 0;
+      while (c < row.chunks.length || d < previous.chunks.length) {
+        Chunk a = c < row.chunks.length ? row.chunks[c] : null;
+        Chunk b = d < previous.chunks.length ? previous.chunks[d] : null;
+        // every tone before a shared chunk starts before it in both rows, so both rows reach
+        // the start of a shared chunk together
+        if (a == b && i == 0 && j == 0) {
+          c++;
+          d++;
+          continue;
+        }
+        boolean nextA = false;
+        boolean nextB = false;
+        if (b == null || (a != null && a.starts[i] < b.starts[j])) {
+          a.visit(timbre, midiPitch, i, added);
+          nextA = true;
+        }
+        else if (a == null || b.starts[j] < a.starts[i]) {
+          b.visit(timbre, midiPitch, j, removed);
+          nextB = true;
+        }
+        else {
+          if (a.durations[i] != b.durations[j] || a.volumes[i] != b.volumes[j]) {
+            b.visit(timbre, midiPitch, j, removed);
+            a.visit(timbre, midiPitch, i, added);
+          }
+          nextA = true;
+          nextB = true;
+        }
+        if (nextA && ++i == a.starts.length) {
+          c++;
+          i = 0;
+        }
+        if (nextB && ++j == b.starts.length) {
+          d++;
+          j = 0;
+        }
+      }
+    }
+
+    /**
+     * Returns a copy of this row that also holds the given tone.
+     */
+    private Row with(int start, int duration, int volume) {
+      if (this.chunks.length == 0) {
+        return new Row(new Chunk[] {Chunk.of(start, duration, volume)}, new int[] {0, 1});
+      }
+      int index = this.lowerBound(start);
+      // a tone after the last goes at the end of the last chunk
+      int c = this.chunkOf(Math.min(index, this.size() - 1));
+      Chunk chunk = this.chunks[c];
+      int position = index - this.offsets[c];
+      if (chunk.size() == MAX_CHUNK && position == MAX_CHUNK) {
+        // a tone after a full chunk starts a new one, so that a row added to in order of start
+        // beat is made of full chunks
+        return this.replace(c + 1, c + 1, Chunk.of(start, duration, volume));
+      }
+      chunk = chunk.with(position, start, duration, volume);
+      if (chunk.size() > MAX_CHUNK) {
+        int half = chunk.size() / 2;
+        return this.replace(c, c + 1, chunk.slice(0, half), chunk.slice(half, chunk.size()));
+      }
+      return this.replace(c, c + 1, chunk);
+    }
+
+    /**
+     * Returns a copy of this row that also holds the notes between the given indices of the given
+     * sorted buffer, merged in order of start beat. Only the chunks among which the notes fall
+     * are built again.
+     */
+    private Row with(NoteBuffer notes, int from, int to) {
+      int size = this.size();
+      int first = 0;
+      int last = 0;
+      if (size > 0) {
+        first = this.chunkOf(Math.min(this.lowerBound(notes.getStart(from)), size - 1));
+        last = this.chunkOf(Math.min(this.lowerBound(notes.getStart(to - 1)), size - 1)) + 1;
+      }
+      int count = this.offsets[last] - this.offsets[first] + to - from;
+      int packed = MAX_CHUNK / 2;
+      Chunk[] built = new Chunk[(count + packed - 1) / packed];
+      int c = first;
+      int i = 0;
+      int b = from;
+      for (int k = 0; k < built.length; k++) {
+        int n = Math.min(packed, count - k * packed);
+        int[] starts = new int[n];
+        int[] durations = new int[n];
+        int[] volumes = new int[n];
+        for (int out = 0; out < n; out++) {
+          if (b == to || (c < last && this.chunks[c].starts[i] < notes.getStart(b))) {
+            Chunk chunk = this.chunks[c];
+            starts[out] = chunk.starts[i];
+            durations[out] = chunk.durations[i];
+            volumes[out] = chunk.volumes[i];
+            if (++i == chunk.starts.length) {
+              c++;
+              i = 0;
+            }
+          }
+          else {
+            starts[out] = notes.getStart(b);
+            durations[out] = notes.getEnd(b) - notes.getStart(b);
+            volumes[out] = notes.getVolume(b);
+            b++;
+          }
+        }
+        built[k] = new Chunk(starts, durations, volumes);
+      }
+      return this.replace(first, last, built);
+    }
+
+    /**
+     * Returns a copy of this row without the tone starting at the given beat, or null if the copy
+     * would be empty. Returns this row if there is no such tone.
+     */
+    private Row without(int start) {
+      int index = this.lowerBound(start);
+      if (index == this.size() || this.startAt(index) != start) {
+        return this;
+      }
+      if (this.size() == 1) {
+        return null;
+      }
+      int c = this.chunkOf(index);
+      Chunk chunk = this.chunks[c];
+      if (chunk.size() == 1) {
+        return this.replace(c, c + 1);
+      }
+      chunk = chunk.without(index - this.offsets[c]);
+      // a chunk that has become small is joined to a neighbour, so that a row emptied tone by
+      // tone does not fill up with tiny chunks
+      if (chunk.size() < MAX_CHUNK / 4) {
+        if (c + 1 < this.chunks.length && chunk.size() + this.chunks[c + 1].size() <= MAX_CHUNK) {
+          return this.replace(c, c + 2, Chunk.join(chunk, this.chunks[c + 1]));
+        }
+        if (c > 0 && this.chunks[c - 1].size() + chunk.size() <= MAX_CHUNK) {
+          return this.replace(c - 1, c + 1, Chunk.join(this.chunks[c - 1], chunk));
+        }
+      }
+      return this.replace(c, c + 1, chunk);
+    }
+
+    /**
+     * Returns a copy of this row with the chunks between the given indices replaced by the given
+     * chunks, sharing every other chunk.
+     */
+    private Row replace(int from, int to, Chunk... replacement) {
+      Chunk[] chunks = new Chunk[this.chunks.length - (to - from) + replacement.length];
+      System.arraycopy(this.chunks, 0, chunks, 0, from);
+      System.arraycopy(replacement, 0, chunks, from, replacement.length);
+      System.arraycopy(this.chunks, to, chunks, from + replacement.length,
+          this.chunks.length - to);
+      int[] offsets = new int[chunks.length + 1];
+      System.arraycopy(this.offsets, 0, offsets, 0, from + 1);
+      for (int c = from; c < chunks.length; c++) {
+        offsets[c + 1] = offsets[c] + chunks[c].size();
+      }
+      return new Row(chunks, offsets);
+    }
+  }
+
+  /**
+   * A run of the tones of a row in parallel arrays sorted by start beat. Chunks are never changed
+   * once made, so rows may share them.
+   */
+  private static final class Chunk {
+    private final int[] starts;
+    private final int[] durations;
+    private final int[] volumes;
+
+    private Chunk(int[] starts, int[] durations, int[] volumes) {
+      this.starts = starts;
+      this.durations = durations;
+      this.volumes = volumes;
+    }
+
+    /**
+     * Returns a chunk of the single given tone.
+     */
+    private static Chunk of(int start, int duration, int volume) {
+      return new Chunk(new int[] {start}, new int[] {duration}, new int[] {volume});
+    }
+
+    /**
+     * Returns a chunk of the tones of the first given chunk followed by those of the second.
+     */
+    private static Chunk join(Chunk first, Chunk second) {
+      int size = first.size() + second.size();
+      int[] starts = Arrays.copyOf(first.starts, size);
+      int[] durations = Arrays.copyOf(first.durations, size);
+      int[] volumes = Arrays.copyOf(first.volumes, size);
+      System.arraycopy(second.starts, 0, starts, first.size(), second.size());
+      System.arraycopy(second.durations, 0, durations, first.size(), second.size());
+      System.arraycopy(second.volumes, 0, volumes, first.size(), second.size());
+      return new Chunk(starts, durations, volumes);
+    }
+
+    private int size() {
+      return this.starts.length;
+    }
+
+    /**
+     * Returns the index of the first tone starting at or after the given beat.
+     */
+    private int lowerBound(int beat) {
+      int index = Arrays.binarySearch(this.starts, beat);
+      return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * Visits the tone at the given index.
+     */
+    private void visit(int timbre, int midiPitch, int index, ToneVisitor visitor) {
+      visitor.visit(timbre, midiPitch,
+          this.starts[index], this.durations[index], this.volumes[index]);
+    }
+
+    /**
+     * Returns a chunk of the tones between the given indices.
+     */
+    private Chunk slice(int from, int to) {
+      return new Chunk(Arrays.copyOfRange(this.starts, from, to),
+          Arrays.copyOfRange(this.durations, from, to),
+          Arrays.copyOfRange(this.volumes, from, to));
+    }
+
+    /**
+     * Returns a copy of this chunk with the given tone inserted at the given index.
+     */
+    private Chunk with(int index, int start, int duration, int volume) {
+      int size = this.starts.length;
+      int[] starts = new int[size + 1];
+      int[] durations = new int[size + 1];
+      int[] volumes = new int[size + 1];
+      System.arraycopy(this.starts, 0, starts, 0, index);
+      System.arraycopy(this.durations, 0, durations, 0, index);
+      System.arraycopy(this.volumes, 0, volumes, 0, index);
+      starts[index] = start;
+      durations[index] = duration;
+      volumes[index] = volume;
+      System.arraycopy(this.starts, index, starts, index + 1, size - index);
+      System.arraycopy(this.durations, index, durations, index + 1, size - index);
+      System.arraycopy(this.volumes, index, volumes, index + 1, size - index);
+      return new Chunk(starts, durations, volumes);
+    }
+
+    /**
+     * Returns a copy of this chunk without the tone at the given index.
+     */
+    private Chunk without(int index) {
+      int size = this.starts.length - 1;
+      int[] starts = new int[size];
+      int[] durations = new int[size];
+      int[] volumes = new int[size];
+      System.arraycopy(this.starts, 0, starts, 0, index);
+      System.arraycopy(this.durations, 0, durations, 0, index);
+      System.arraycopy(this.volumes, 0, volumes, 0, index);
+      System.arraycopy(this.starts, index + 1, starts, index, size - index);
+      System.arraycopy(this.durations, index + 1, durations, index, size - index);
+      System.arraycopy(this.volumes, index + 1, volumes, index, size - index);
+      return new Chunk(starts, durations, volumes);
+    }
+  }
+}
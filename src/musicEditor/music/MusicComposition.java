@@ -1,6 +1,6 @@
 package musicEditor.music;
 
-import musicEditor.util.CompositionBuilder;
+import musicEditor.util.NoteBuffer;
 
 import java.util.*;
 
@@ -11,21 +11,34 @@ import java.util.*;
  * Also contains a map with integer keys representing
  * beats that correspond to Feature objects so that the composition can hold data on where this
  * composition should repeat or have varied endings.
+ * Keeps the number of beats spanned by its tones up to date as tones are added and removed.
+ * Every change also publishes a new immutable {@link CompositionSnapshot} which other threads,
+ * such as the player and the painters, may read while this composition goes on being edited.
+ * Edits themselves are expected to be made from a single thread.
  */
 public class MusicComposition {
   private SortedMap<Integer, MusicSheet> composition;
+  private Collection<MusicSheet> sheets;
   private SortedMap<Integer, Feature> features;
+  private int tonesLength;
+  private volatile CompositionSnapshot snapshot;
 
   /**
    * Constructs a new MusicComposition. Initializes the composition.
    */
   public MusicComposition() {
     this.composition = new TreeMap<>();
+    this.sheets = Collections.unmodifiableCollection(this.composition.values());
     this.features = new TreeMap<>();
+    this.tonesLength = 0;
+    this.snapshot = CompositionSnapshot.EMPTY;
   }
 
   /**
    * Constructs a new MusicComposition. Initializes the composition to the given composition
+   * <p>The given map is kept rather than copied, and its tones are published in this
+   * composition's first snapshot. Changes made to the map or its sheets afterwards are not
+   * published, so the player and the painters, which read only snapshots, do not see them.</p>
    * @param composition the composition
    * @throws IllegalArgumentException if the given composition is invalid
    */
@@ -35,6 +48,12 @@ public class MusicComposition {
       throw new IllegalArgumentException("the given composition is invalid");
     }
     this.composition = composition;
+    this.sheets = Collections.unmodifiableCollection(this.composition.values());
+    this.updateTonesLength();
+    NoteBuffer notes = new NoteBuffer();
+    this.forEachTone((timbre, midiPitch, start, duration, volume) ->
+        notes.add(start, start + duration, timbre, midiPitch, volume));
+    this.publishAdded(notes);
   }
 
   /**
@@ -48,14 +67,54 @@ public class MusicComposition {
                           SortedMap<Integer, Feature> features) {
     this(composition);
     this.features = features;
+    this.snapshot = this.snapshot.withLength(this.length());
   }
 
   /**
-   * Gets the music sheets that make up this composition.
+   * Gets the latest snapshot of this composition. The snapshot never changes, so it may be read
+   * from any thread; later edits to this composition publish new snapshots instead.
+   * @return the latest snapshot of this composition
+   */
+  public CompositionSnapshot snapshot() {
+    return this.snapshot;
+  }
+
+  /**
+   * Publishes a new snapshot that also holds a tone with the given fields. Called once the tone
+   * has been added and the length of this composition updated.
+   */
+  protected final void publishAdded(int timbre, int midiPitch, int start, int duration,
+                                    int volume) {
+    this.snapshot = this.snapshot.withTone(
+        timbre, midiPitch, start, duration, volume, this.length());
+  }
+
+  /**
+   * Publishes a new snapshot that also holds every note of the given sorted buffer. Called once
+   * the notes have been added and the length of this composition updated.
+   */
+  protected final void publishAdded(NoteBuffer notes) {
+    this.snapshot = this.snapshot.withTones(notes, this.length());
+  }
+
+  /**
+   * Publishes a new snapshot without the tone of the given timbre and pitch starting at the given
+   * beat. Called once the tone has been removed and the length of this composition updated.
+   */
+  protected final void publishRemoved(int timbre, int midiPitch, int start) {
+    this.snapshot = this.snapshot.withoutTone(timbre, midiPitch, start, this.length());
+  }
+
+  /**
+   * Gets the music sheets that make up this composition in order of timbre. The returned
+   * collection is a read-only view of this composition, but the sheets in it are this
+   * composition's own. Tones added to or removed from them directly are not published in a
+   * snapshot, so the player and the painters do not see them; edit through this composition's
+   * methods instead.
    * @return a collection of the music sheets in this composition
    */
   public Collection<MusicSheet> getSheets() {
-    return this.composition.values();
+    return this.sheets;
   }
 
   /**
@@ -79,10 +138,134 @@ public class MusicComposition {
    */
   public void addTone(Tone tone) {
     int timbre = tone.getTimbre();
-    if (!this.composition.containsKey(timbre)) {
-      this.composition.put(timbre, new MusicSheet(timbre));
+    MusicSheet sheet = this.composition.get(timbre);
+    if (sheet == null) {
+      sheet = new MusicSheet(timbre);
+      sheet.addTone(tone);
+      this.composition.put(timbre, sheet);
+    }
+    else {
+      sheet.addTone(tone);
+    }
+    if (sheet.length() > this.tonesLength) {
+      this.tonesLength = sheet.length();
+    }
+    this.publishAdded(timbre, tone.midiPitch(), tone.getStart(), tone.getDuration(),
+        tone.getVolume());
+  }
+
+  /**
+   * Adds every note in the given buffer to this composition at once. The buffer is sorted by
+   * timbre, then pitch, then start beat and checked for overlaps in a single pass, and each of
+   * its rows is then added in one piece. Either every note is added or, if any note is invalid
+   * or would overlap another tone, none are.
+   * @param notes the notes being added, which are sorted by this method
+   * @throws IllegalArgumentException if a note is invalid or would cause an overlap
+   */
+  public void addTones(NoteBuffer notes) {
+    notes.sort();
+    checkNotes(notes);
+    // checks the notes against the tones already in this composition before adding any
+    for (int i = 0; i < notes.size(); i = timbreEnd(notes, i)) {
+      MusicSheet sheet = this.composition.get(notes.getTimbre(i));
+      if (sheet != null) {
+        sheet.checkTones(notes, i, timbreEnd(notes, i));
+      }
+    }
+    for (int i = 0; i < notes.size(); i = timbreEnd(notes, i)) {
+      int timbre = notes.getTimbre(i);
+      MusicSheet sheet = this.composition.get(timbre);
+      if (sheet == null) {
+        sheet = new MusicSheet(timbre);
+        this.composition.put(timbre, sheet);
+      }
+      sheet.addTones(notes, i, timbreEnd(notes, i));
+      if (sheet.length() > this.tonesLength) {
+        this.tonesLength = sheet.length();
+      }
     }
-    this.composition.get(timbre).addTone(tone);
+    this.publishAdded(notes);
+  }
+
+  /**
+   * Checks that every note in the given sorted buffer would make a valid Tone and that no note
+   * overlaps the note before it in the same row. The fields of each note are checked directly,
+   * in the same order and with the same messages as constructing its Tone would, and a note that
+   * records the line it was read from names that line in the message.
+   * @param notes the sorted notes being checked
+   * @throws IllegalArgumentException if a note is invalid or overlaps another note
+   */
+  protected static void checkNotes(NoteBuffer notes) {
+    for (int i = 0; i < notes.size(); i++) {
+      int start = notes.getStart(i);
+      String problem = checkNote(notes.getPitch(i), start, notes.getEnd(i) - start,
+          notes.getVolume(i), notes.getTimbre(i));
+      if (problem == null && i > 0 && notes.getTimbre(i - 1) == notes.getTimbre(i)
+          && notes.getPitch(i - 1) == notes.getPitch(i)) {
+        if (notes.getStart(i - 1) == start) {
+          problem = "tone already exists at given beat";
+        }
+        else if (notes.getEnd(i - 1) - 1 >= start) {
+          problem = "previous tone overlaps given tone";
+        }
+      }
+      if (problem != null) {
+        throw noteError(notes, i, problem);
+      }
+    }
+  }
+
+  /**
+   * Gets the message a Tone with the given fields would be rejected with, or null if it would be
+   * valid.
+   */
+  private static String checkNote(int midiPitch, int start, int duration, int volume,
+                                  int timbre) {
+    if (midiPitch < 0) {
+      return "midiPitch cannot be negative";
+    }
+    if (midiPitch > 127) {
+      return "midiPitch cannot be greater than 127";
+    }
+    if (start < 0) {
+      return "start cannot be negative";
+    }
+    if (duration < 0) {
+      return "duration must be non-negative";
+    }
+    if (volume < 0) {
+      return "volume must be non-negative";
+    }
+    if (timbre < 1 || timbre > 128) {
+      return "timbre must correspond to a valid MIDI instrument code between 1 and 128";
+    }
+    return null;
+  }
+
+  /**
+   * Makes the exception for the note at the given index of the given buffer, naming the line the
+   * note was read from when it is known.
+   * @param notes the buffer holding the note
+   * @param index the index of the note
+   * @param message what is wrong with the note
+   * @return the exception to throw
+   */
+  static IllegalArgumentException noteError(NoteBuffer notes, int index, String message) {
+    int line = notes.getLine(index);
+    return new IllegalArgumentException(line == 0 ? message : message + " (line " + line + ")");
+  }
+
+  /**
+   * Returns the index after the last note in the given sorted buffer with the same timbre as the
+   * note at the given index.
+   */
+  private static int timbreEnd(NoteBuffer notes, int index) {
+    int timbre = notes.getTimbre(index);
+    int end = index + 1;
+    while (end < notes.size() && notes.getTimbre(end) == timbre) {
+      end++;
+    }
+    return end;
   }
 
   /**
@@ -99,8 +282,8 @@ public class MusicComposition {
     }
     MusicSheet sheet = this.composition.get(timbre);
     Tone result = sheet.removeTone(pitch, beat);
-    if (sheet.isEmpty()) {
-      this.composition.remove(timbre);
+    if (result != null) {
+      this.removed(sheet, result);
     }
     return result;
   }
@@ -112,7 +295,41 @@ public class MusicComposition {
    * @return whether the tone was removed
    */
   public boolean removeTone(Tone tone) {
-    return this.composition.get(tone.getTimbre()).removeTone(tone);
+    MusicSheet sheet = this.composition.get(tone.getTimbre());
+    if (sheet == null || !sheet.removeTone(tone)) {
+      return false;
+    }
+    this.removed(sheet, tone);
+    return true;
+  }
+
+  /**
+   * Updates this composition after the given tone was removed from the given sheet. Removes the
+   * sheet if it became empty, refreshes the length if the tone ended on the last beat, and
+   * publishes a new snapshot.
+   * @param sheet the sheet the tone was removed from
+   * @param tone the tone removed
+   */
+  private void removed(MusicSheet sheet, Tone tone) {
+    if (sheet.isEmpty()) {
+      this.composition.remove(sheet.getTIMBRE());
+    }
+    if (tone.getStart() + tone.getDuration() == this.tonesLength) {
+      this.updateTonesLength();
+    }
+    this.publishRemoved(tone.getTimbre(), tone.midiPitch(), tone.getStart());
+  }
+
+  /**
+   * Recomputes the number of beats spanned by this composition's tones from its sheets.
+   */
+  private void updateTonesLength() {
+    this.tonesLength = 0;
+    for (MusicSheet sheet : this.composition.values()) {
+      if (this.tonesLength < sheet.length()) {
+        this.tonesLength = sheet.length();
+      }
+    }
   }
 
   /**
@@ -132,12 +349,94 @@ public class MusicComposition {
     return result;
   }
 
+  /**
+   * Visits every Tone in this composition in order of timbre, then pitch, then start beat.
+   * @param visitor the visitor given each tone
+   */
+  public void forEachTone(ToneVisitor visitor) {
+    for (MusicSheet sheet : this.composition.values()) {
+      for (MusicRow row : sheet.getRows()) {
+        for (Tone tone : row.getTones()) {
+          visitor.visit(tone.getTimbre(), tone.midiPitch(),
+              tone.getStart(), tone.getDuration(), tone.getVolume());
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits every Tone of the given timbre and pitch in this composition in order of start beat.
+   * Does nothing if there are no such tones.
+   * @param timbre the timbre of the tones being visited
+   * @param pitch the pitch of the tones being visited
+   * @param visitor the visitor given each tone
+   */
+  public void forEachTone(int timbre, Pitch pitch, ToneVisitor visitor) {
+    MusicSheet sheet = this.composition.get(timbre);
+    if (sheet != null) {
+      sheet.forEachTone(pitch, visitor);
+    }
+  }
+
+  /**
+   * Visits every Tone in this composition that is sounding at any beat from the given beat up to
+   * but not including the other given beat. Tones are visited in order of timbre, then pitch,
+   * then start beat.
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(int fromBeat, int toBeat, ToneVisitor visitor) {
+    for (MusicSheet sheet : this.composition.values()) {
+      sheet.forEachToneBetween(Pitch.of(0), Pitch.of(127), fromBeat, toBeat, visitor);
+    }
+  }
+
+  /**
+   * Visits every Tone of the given timbre that is sounding at any beat from the given beat up to
+   * but not including the other given beat. Tones are visited in order of pitch, then start beat.
+   * @param timbre the timbre of the tones being visited
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(int timbre, int fromBeat, int toBeat, ToneVisitor visitor) {
+    this.forEachToneBetween(timbre, Pitch.of(0), Pitch.of(127), fromBeat, toBeat, visitor);
+  }
+
+  /**
+   * Visits every Tone of the given timbre whose pitch is between the given pitches inclusive and
+   * that is sounding at any beat from the given beat up to but not including the other given
+   * beat. Tones are visited in order of pitch, then start beat.
+   * @param timbre the timbre of the tones being visited
+   * @param lowest the lowest pitch of the tones being visited
+   * @param highest the highest pitch of the tones being visited
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(int timbre, Pitch lowest, Pitch highest,
+                                 int fromBeat, int toBeat, ToneVisitor visitor) {
+    MusicSheet sheet = this.composition.get(timbre);
+    if (sheet != null) {
+      sheet.forEachToneBetween(lowest, highest, fromBeat, toBeat, visitor);
+    }
+  }
+
   /**
    * Returns true if this composition contains no MusicSheets.
    * @return whether this composition contains MusicSheets
    */
   public boolean isEmpty() {
-    return this.composition.isEmpty() && this.features.isEmpty();
+    return !this.hasTones() && this.features.isEmpty();
+  }
+
+  /**
+   * Returns true if this composition contains any Tones.
+   * @return whether this composition contains Tones
+   */
+  protected boolean hasTones() {
+    return !this.composition.isEmpty();
   }
 
   /**
@@ -146,17 +445,7 @@ public class MusicComposition {
    * @return the number of beats in this composition
    */
   public int length() {
-    if (this.isEmpty()) {
-      return 0;
-    }
-    List<MusicSheet> values = new ArrayList<>(this.composition.values());
-    int result = values.get(0).length();
-    for (int i = 1; i < values.size(); i++) {
-      int length = values.get(i).length();
-      if (result < length) {
-        result = length;
-      }
-    }
+    int result = this.tonesLength();
     // changes result to the last feature beat if it is larger
     if (!this.features.isEmpty()) {
       int lastFeatureBeat = ((SortedSet<Integer>) this.features.keySet()).last();
@@ -167,17 +456,26 @@ public class MusicComposition {
     return result;
   }
 
+  /**
+   * Returns the beat at which the last Tone in this composition ends. Returns zero if this
+   * composition contains no Tones.
+   * @return the number of beats spanned by this composition's tones
+   */
+  protected int tonesLength() {
+    return this.tonesLength;
+  }
+
   /**
    * Returns the full sorted range of Pitches in from the sheet with the specified timbre
    * from lowest pitch to the highest pitch. Returns an empty set if the sheet does not exist.
-   * highest pitch.
+   * The returned set is read-only.
    * @return a full sorted range of Pitches in this sheet
    */
   public SortedSet<Pitch> range(int timbre) {
-    if (!this.composition.containsKey(timbre)) {
-      return new TreeSet<>();
-    }
     MusicSheet sheet = this.composition.get(timbre);
+    if (sheet == null) {
+      return Collections.emptySortedSet();
+    }
     return sheet.range();
   }
 
@@ -192,6 +490,7 @@ public class MusicComposition {
       throw new IllegalArgumentException("feature already exists at given beat");
     }
     this.features.put(beat, feature);
+    this.snapshot = this.snapshot.withLength(this.length());
   }
 
   /**
@@ -199,7 +498,18 @@ public class MusicComposition {
    * Returns null if no feature exists at that beat.
    */
   public Feature removeFeature(int beat) {
-    return this.features.remove(beat);
+    Feature result = this.features.remove(beat);
+    this.snapshot = this.snapshot.withLength(this.length());
+    return result;
+  }
+
+  /**
+   * Gets the features of this composition keyed by the beat they occur at. The returned map is a
+   * read-only view of this composition.
+   * @return the features of this composition in order of beat
+   */
+  public SortedMap<Integer, Feature> getFeatures() {
+    return Collections.unmodifiableSortedMap(this.features);
   }
 
   /**
@@ -1,18 +1,40 @@
 package musicEditor.music;
 
 import javax.sound.midi.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Created by gwlar on 6/26/2017.
  */
 public class MusicPlayer {
+  /**
+   * The number of tones above which a composition is played by a {@link StreamingScheduler}
+   * rather than turned into a Sequence for the sequencer.
+   */
+  public static final int STREAMING_THRESHOLD = 1 << 17;
+
+
   private int tempo;
   private Sequencer sequencer;
   private MusicComposition composition;
+  private Sequence sequence;
+  private Track[] tracks;
+  private final ChannelMap channels;
+  private boolean[] shared;
+  private MusicComposition sequencedComposition;
+  private CompositionSnapshot sequenced;
+  private StreamingScheduler scheduler;
+  private boolean streaming;
+  private PerformanceTimeline timeline;
 
   public MusicPlayer() {
     this.tempo = 1;
+    this.channels = new ChannelMap();
+    this.shared = new boolean[129];
     try {
       this.sequencer = MidiSystem.getSequencer();
       this.sequencer.open();
@@ -27,6 +49,9 @@ public class MusicPlayer {
 
   public void setTempo(int tempo) {
     this.tempo = tempo;
+    if (this.scheduler != null && tempo > 0) {
+      this.scheduler.setTempo(tempo);
+    }
   }
 
   public Sequencer getSequencer() {
@@ -35,56 +60,178 @@ public class MusicPlayer {
 
   public void setSequencer(Sequencer sequencer) {
     this.sequencer = sequencer;
+    this.sequencedComposition = null;
   }
 
+  /**
+   * Gets the score beat being played. While a composition with repetitions is played, this is
+   * the beat of the score being played at the current point of the performance.
+   * @return the current score beat
+   */
   public int getBeat() {
+    if (this.streaming) {
+      return this.timeline.scoreBeat(this.scheduler.getBeat());
+    }
     return (int) this.sequencer.getTickPosition();
   }
 
+  /**
+   * Moves playback to the given score beat. While a composition with repetitions is played, this
+   * is the next time the beat is played from the current point of the performance on, or else
+   * the first time it is played.
+   * @param beat the score beat to move to
+   */
   public void setBeat(int beat) {
-    this.sequencer.setTickPosition(beat);
+    if (this.streaming) {
+      this.scheduler.setBeat(this.timeline.performanceBeat(beat, this.scheduler.getBeat()));
+    }
+    else {
+      this.sequencer.setTickPosition(beat);
+    }
   }
 
   public void play() {
-    this.sequencer.start();
-    this.sequencer.setTempoInMPQ(this.tempo);
+    if (this.streaming) {
+      this.scheduler.play();
+    }
+    else {
+      this.sequencer.start();
+      this.sequencer.setTempoInMPQ(this.tempo);
+    }
   }
 
   public void pause() {
-    this.sequencer.stop();
+    if (this.streaming) {
+      this.scheduler.pause();
+    }
+    else {
+      this.sequencer.stop();
+    }
   }
 
   public boolean isRunning() {
+    if (this.streaming) {
+      return this.scheduler.isRunning();
+    }
     return this.sequencer.isRunning();
   }
 
+  /**
+   * Gets the timeline of the composition being played, which maps the beats of its performance
+   * to the beats of its score.
+   * @return the performance timeline
+   */
+  public PerformanceTimeline getTimeline() {
+    if (this.streaming) {
+      return this.timeline;
+    }
+    return PerformanceTimeline.linear(
+        this.sequenced == null ? 0 : this.sequenced.length());
+  }
+
+  /**
+   * Returns true if compositions are being played by a {@link StreamingScheduler} rather than the
+   * sequencer.
+   * @return whether compositions are streamed
+   */
+  public boolean isStreaming() {
+    return this.streaming;
+  }
+
+  /**
+   * Sets the scheduler that plays compositions of more than {@link #STREAMING_THRESHOLD} tones
+   * and compositions with repetitions.
+   * Unless one is set, a scheduler playing through the default synthesizer is made the first
+   * time one is needed.
+   * @param scheduler the scheduler
+   */
+  public void setScheduler(StreamingScheduler scheduler) {
+    this.stopStreaming();
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Sequences the given composition in the sequencer. The first time a composition is sequenced
+   * its whole sequence is built, with one track per timbre. Each track starts with a program
+   * change that selects the timbre's instrument on a channel of its own, skipping the percussion
+   * channel and wrapping around after sixteen timbres. A timbre that shares its channel has a
+   * program change just before each of its note ons as well, since the sequencer plays the due
+   * events of one track together, so every tone is struck with its own instrument. The tracks are
+   * filled in parallel on the common fork-join pool.
+   * After that the sequence is kept along with the snapshot it was built from, and only the
+   * events of tones added or removed since then are applied to its tracks, unless a new timbre
+   * would share a channel, which builds the whole sequence again. Nothing is done if the
+   * composition has not changed. Since the sequencer is given the same sequence again, it also
+   * keeps its position.
+   * @param composition the composition to sequence
+   */
   public void sequenceComposition(MusicComposition composition) {
+    // reads a snapshot so that edits made while sequencing do not affect the sequence
+    CompositionSnapshot snapshot = composition.snapshot();
+    PerformanceTimeline timeline =
+        PerformanceTimeline.of(composition.getFeatures(), snapshot.length());
+    // the sequencer can only play the score straight through, so repetitions are streamed
+    if (timeline.segmentCount() > 1 || countTones(snapshot) > STREAMING_THRESHOLD) {
+      int beat = this.getBeat();
+      boolean seek = !this.streaming || !this.isRunning();
+      if (this.startStreaming()) {
+        this.timeline = timeline;
+        this.scheduler.setSnapshot(snapshot, timeline);
+        if (seek) {
+          // the repetitions may have changed, so a paused position is kept as a score beat
+          this.scheduler.setBeat(timeline.performanceBeat(beat, this.scheduler.getBeat()));
+        }
+        return;
+      }
+    }
+    this.stopStreaming();
     try {
-      Sequence sequence = new Sequence(Sequence.PPQ, 1);
-      Track track = sequence.createTrack();
-      Collection<MusicSheet> sheets = composition.getSheets();
-      for (MusicSheet sheet : sheets) {
-        Collection<MusicRow> rows = sheet.getRows();
-        for (MusicRow row : rows) {
-          Collection<Tone> tones = row.getTones();
-          for (Tone tone : tones) {
-            MidiMessage start = new ShortMessage(
-                ShortMessage.NOTE_ON, tone.getTimbre() - 1, tone.midiPitch(), tone.getVolume());
-            MidiMessage stop = new ShortMessage(
-                ShortMessage.NOTE_OFF, tone.getTimbre() - 1, tone.midiPitch(), tone.getVolume());
-            track.add(new MidiEvent(start, tone.getStart()));
-            track.add(new MidiEvent(stop, (tone.getStart() + tone.getDuration())));
+      if (composition != this.sequencedComposition || this.sharesNewChannel(snapshot)) {
+        this.sequence = new Sequence(Sequence.PPQ, 1);
+        this.tracks = new Track[129];
+        this.channels.clear();
+        this.shared = new boolean[129];
+        int[] timbresOnChannel = new int[16];
+        for (int timbre = 1; timbre < this.tracks.length; timbre++) {
+          if (!snapshot.range(timbre).isEmpty()) {
+            timbresOnChannel[this.channels.channelOf(timbre)]++;
           }
         }
+        // the tracks are created here since a sequence cannot create them concurrently
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int timbre = 1; timbre < this.tracks.length; timbre++) {
+          if (!snapshot.range(timbre).isEmpty()) {
+            int channel = this.channels.channelOf(timbre);
+            this.shared[timbre] = timbresOnChannel[channel] > 1;
+            tasks.add(ForkJoinTask.adapt(new TrackTask(snapshot, timbre, this.trackOf(timbre),
+                channel, this.shared[timbre])));
+          }
+        }
+        ForkJoinTask.invokeAll(tasks);
       }
-      this.sequencer.setSequence(sequence);
-      this.sequencer.setLoopEndPoint(composition.length());
+      else if (snapshot == this.sequenced) {
+        return;
+      }
+      else {
+        snapshot.forEachDifference(this.sequenced,
+            (timbre, midiPitch, start, duration, volume) -> addTone(this.trackOf(timbre),
+                this.channels.channelOf(timbre), this.programOf(timbre), midiPitch, start,
+                duration, volume),
+            (timbre, midiPitch, start, duration, volume) -> removeTone(this.tracks[timbre],
+                this.channels.channelOf(timbre), this.programOf(timbre), midiPitch, start,
+                duration));
+      }
+      this.sequencedComposition = composition;
+      this.sequenced = snapshot;
+      this.sequencer.setSequence(this.sequence);
+      this.sequencer.setLoopEndPoint(snapshot.length());
     } catch (InvalidMidiDataException e) {
       e.printStackTrace();
     }
   }
 
   public void sequenceSheet(MusicSheet sheet) {
+    this.stopStreaming();
     try {
       Sequence sequence = new Sequence(Sequence.PPQ, 1);
       Track track = sequence.createTrack();
@@ -101,12 +248,14 @@ public class MusicPlayer {
         }
       }
       this.sequencer.setSequence(sequence);
+      this.sequencedComposition = null;
     } catch (InvalidMidiDataException e) {
       e.printStackTrace();
     }
   }
 
   public void sequenceComposition(MusicRow row) {
+    this.stopStreaming();
     try {
       Sequence sequence = new Sequence(Sequence.PPQ, 1);
       Track track = sequence.createTrack();
@@ -120,8 +269,301 @@ public class MusicPlayer {
         track.add(new MidiEvent(stop, (tone.getStart() + tone.getDuration())));
       }
       this.sequencer.setSequence(sequence);
+      this.sequencedComposition = null;
+    } catch (InvalidMidiDataException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Switches playback over to the scheduler, first making one if there is none. The sequence is
+   * let go since the scheduler does not need it.
+   * Returns false if no scheduler could be made.
+   */
+  private boolean startStreaming() {
+    if (this.streaming) {
+      return true;
+    }
+    if (this.scheduler == null) {
+      try {
+        Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        synthesizer.open();
+        this.scheduler = new StreamingScheduler(synthesizer);
+      } catch (MidiUnavailableException e) {
+        e.printStackTrace();
+        return false;
+      }
+    }
+    this.sequencer.stop();
+    this.scheduler.setTempo(Math.max(this.tempo, 1));
+    this.streaming = true;
+    this.sequence = null;
+    this.tracks = null;
+    this.sequencedComposition = null;
+    this.sequenced = null;
+    return true;
+  }
+
+  /**
+   * Switches playback back to the sequencer, carrying the current beat over to it.
+   */
+  private void stopStreaming() {
+    if (this.streaming) {
+      int beat = this.getBeat();
+      this.scheduler.pause();
+      this.streaming = false;
+      this.sequencer.setTickPosition(beat);
+    }
+  }
+
+  /**
+   * Returns the number of tones in the given snapshot.
+   */
+  private static int countTones(CompositionSnapshot snapshot) {
+    int count = 0;
+    for (int timbre = 1; timbre <= 128; timbre++) {
+      if (!snapshot.range(timbre).isEmpty()) {
+        for (int midiPitch = 0; midiPitch < 128; midiPitch++) {
+          count += snapshot.rowSize(timbre, midiPitch);
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns true if the given snapshot has a timbre without a track that would be put on a
+   * channel already taken, which happens once every channel has a timbre.
+   */
+  private boolean sharesNewChannel(CompositionSnapshot snapshot) {
+    int timbres = 0;
+    boolean added = false;
+    for (int timbre = 1; timbre <= 128; timbre++) {
+      if (this.tracks[timbre] != null) {
+        timbres++;
+      }
+      else if (!snapshot.range(timbre).isEmpty()) {
+        timbres++;
+        added = true;
+      }
+    }
+    return added && timbres > ChannelMap.MELODIC_CHANNELS;
+  }
+
+  /**
+   * Gets the program each note on of the given timbre must be preceded by, or -1 if the timbre
+   * has its channel to itself and needs only the program change its track starts with.
+   */
+  private int programOf(int timbre) {
+    return this.shared[timbre] ? timbre - 1 : -1;
+  }
+
+  /**
+   * Gets the track of the given timbre, first creating it on the next free channel with a
+   * program change to the timbre's instrument if there is none.
+   */
+  private Track trackOf(int timbre) {
+    if (this.tracks[timbre] == null) {
+      int channel = this.channels.channelOf(timbre);
+      Track track = this.sequence.createTrack();
+      try {
+        track.add(new MidiEvent(
+            new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, timbre - 1, 0), 0));
+      } catch (InvalidMidiDataException e) {
+        e.printStackTrace();
+      }
+      this.tracks[timbre] = track;
+    }
+    return this.tracks[timbre];
+  }
+
+  /**
+   * Adds the note on and note off events of a tone with the given fields to the given track,
+   * with a program change to the given program before the note on unless the program is -1.
+   */
+  private static void addTone(Track track, int channel, int program, int midiPitch, int start,
+                              int duration, int volume) {
+    try {
+      // a track puts a new event after those already at its tick, and some program change of
+      // the track at a tick always comes before the first note on of the track at that tick
+      if (program != -1) {
+        track.add(new MidiEvent(
+            new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, program, 0), start));
+      }
+      MidiMessage on =
+          new ShortMessage(ShortMessage.NOTE_ON, channel, midiPitch, velocity(volume));
+      MidiMessage off =
+          new ShortMessage(ShortMessage.NOTE_OFF, channel, midiPitch, velocity(volume));
+      MidiEvent offEvent = new MidiEvent(off, start + duration);
+      track.add(new MidiEvent(on, start));
+      track.add(offEvent);
+      // a track puts a new event after those already at its tick, so a note on of the same pitch
+      // at the tick this tone ends is moved back after its note off, followed by the note off of
+      // that next tone if it has no duration
+      if (duration > 0) {
+        MidiEvent nextOn =
+            findEvent(track, ShortMessage.NOTE_ON, channel, midiPitch, start + duration, false);
+        if (nextOn != null) {
+          MidiEvent nextOff =
+              findEvent(track, ShortMessage.NOTE_OFF, channel, midiPitch, start + duration, false);
+          track.remove(nextOn);
+          track.add(nextOn);
+          if (nextOff != offEvent) {
+            track.remove(nextOff);
+            track.add(nextOff);
+          }
+        }
+      }
     } catch (InvalidMidiDataException e) {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Removes the note on and note off events of a tone with the given fields from the given track,
+   * along with a program change to the given program at its start unless the program is -1.
+   * Does nothing if there is no track.
+   */
+  private static void removeTone(Track track, int channel, int program, int midiPitch, int start,
+                                 int duration) {
+    if (track != null) {
+      // the last is removed so that the first, which comes before every note on, is kept
+      if (program != -1) {
+        removeEvent(track, ShortMessage.PROGRAM_CHANGE, channel, program, start, true);
+      }
+      // the note off of a tone without duration follows its note on, so it is the last note off of
+      // its pitch at its tick, while that of any other tone comes before a note on at its tick
+      removeEvent(track, ShortMessage.NOTE_ON, channel, midiPitch, start, false);
+      removeEvent(track, ShortMessage.NOTE_OFF, channel, midiPitch, start + duration,
+          duration == 0);
+    }
+  }
+  /**
+   * Removes the first or last event of the given command, channel, and first data byte at the
+   * given tick from the given track, if there is one.
+   */
+  private static void removeEvent(Track track, int command, int channel, int data1, long tick,
+                                  boolean last) {
+    MidiEvent event = findEvent(track, command, channel, data1, tick, last);
+    if (event != null) {
+      track.remove(event);
+    }
+  }
+
+  /**
+   * Returns the first or last event of the given command, channel, and first data byte at the
+   * given tick in the given track, or null if there is none. The events of a track are sorted by
+   * tick, so the tick is found by binary search.
+   */
+  private static MidiEvent findEvent(Track track, int command, int channel, int data1,
+                                     long tick, boolean last) {
+    int low = 0;
+    int high = track.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (track.get(mid).getTick() < tick) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    MidiEvent result = null;
+    for (int i = low; i < track.size() && track.get(i).getTick() == tick; i++) {
+      MidiEvent event = track.get(i);
+      if (event.getMessage() instanceof ShortMessage) {
+        ShortMessage message = (ShortMessage) event.getMessage();
+        if (message.getCommand() == command && message.getChannel() == channel
+            && message.getData1() == data1) {
+          result = event;
+          if (!last) {
+            break;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the given volume as a MIDI velocity, which cannot be above 127.
+   */
+  private static int velocity(int volume) {
+    return Math.min(volume, 127);
+  }
+
+  /**
+   * Fills the track of one timbre. The note on and note off events of every tone of the timbre
+   * are packed into longs, sorted as primitives, and then added to the track in order, so each
+   * event is appended to the end of the track rather than searched into place. Events are packed
+   * as the tick, then an order within the tick, then the pitch and velocity. A note off comes
+   * before a note on at the same tick so a tone that ends where the next one of its pitch starts is
+   * released first, unless the tone has no duration, whose note off must follow its own note on.
+   * On a shared channel each note on also has a program change, which comes before every note on
+   * at its tick.
+   */
+  private static final class TrackTask implements Runnable {
+    private static final long OFF = 0;
+    private static final long PROGRAM = 1;
+    private static final long ON = 2;
+    private static final long EMPTY_OFF = 3;
+
+    private final CompositionSnapshot snapshot;
+    private final int timbre;
+    private final Track track;
+    private final int channel;
+    private final boolean shared;
+
+    private TrackTask(CompositionSnapshot snapshot, int timbre, Track track, int channel,
+                      boolean shared) {
+      this.snapshot = snapshot;
+      this.timbre = timbre;
+      this.track = track;
+      this.channel = channel;
+      this.shared = shared;
+    }
+
+    @Override
+    public void run() {
+      int count = 0;
+      for (int midiPitch = 0; midiPitch < 128; midiPitch++) {
+        count += this.snapshot.rowSize(this.timbre, midiPitch);
+      }
+      long[] events = new long[count * (this.shared ? 3 : 2)];
+      int size = 0;
+      for (int midiPitch = 0; midiPitch < 128; midiPitch++) {
+        for (int i = 0; i < this.snapshot.rowSize(this.timbre, midiPitch); i++) {
+          long start = this.snapshot.startAt(this.timbre, midiPitch, i);
+          int duration = this.snapshot.durationAt(this.timbre, midiPitch, i);
+          int volume = this.snapshot.volumeAt(this.timbre, midiPitch, i);
+          long note = (midiPitch << 7) | velocity(volume);
+          events[size++] = (start << 16) | (ON << 14) | note;
+          if (this.shared) {
+            events[size++] = (start << 16) | (PROGRAM << 14);
+          }
+          events[size++] = ((start + duration) << 16) | ((duration == 0 ? EMPTY_OFF : OFF) << 14)
+              | note;
+        }
+      }
+      Arrays.sort(events);
+      try {
+        for (long event : events) {
+          long order = (event >>> 14) & 3;
+          MidiMessage message;
+          if (order == PROGRAM) {
+            message = new ShortMessage(
+                ShortMessage.PROGRAM_CHANGE, this.channel, this.timbre - 1, 0);
+          }
+          else {
+            int command = order == ON ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+            message = new ShortMessage(
+                command, this.channel, (int) (event >>> 7) & 0x7F, (int) event & 0x7F);
+          }
+          this.track.add(new MidiEvent(message, event >>> 16));
+        }
+      } catch (InvalidMidiDataException e) {
+        e.printStackTrace();
+      }
+    }
+  }
 }
@@ -1,5 +1,7 @@
 package musicEditor.music;
 
+import musicEditor.util.NoteBuffer;
+
 import java.util.*;
 
 /**
@@ -13,7 +15,8 @@ import java.util.*;
 public class MusicRow {
   private final Pitch PITCH;
   private final int TIMBRE;
-  private SortedMap<Integer, Tone> row;
+  private NavigableMap<Integer, Tone> row;
+  private Collection<Tone> tones;
 
   /**
    * Constructs an empty MusicRow with the given pitch and timbre.
@@ -29,12 +32,15 @@ public class MusicRow {
     }
     this.TIMBRE = TIMBRE;
     this.row = new TreeMap<>();
+    this.tones = Collections.unmodifiableCollection(this.row.values());
   }
 
   /**
    * Constructs an MusicRow with the given pitch, timbre, and row.
    * The timbre must be a valid MIDI instrument code between 1 and 128 inclusive.
-   * The given row must be valid.
+   * The given row must be valid. A NavigableMap such as a TreeMap is kept as this MusicRow's row
+   * without being copied, so the caller's map and this row share their tones. Any other SortedMap
+   * is copied into a TreeMap, since finding a tone's neighbours needs a navigable map.
    * @param PITCH this MusicRow's pitch
    * @param TIMBRE this MusicRow's timbre
    * @param row this MusicRow's row
@@ -44,15 +50,17 @@ public class MusicRow {
     if (!this.validRow(row)) {
       throw new IllegalArgumentException("row cannot contain overlapping tones");
     }
-    this.row = row;
+    this.row = row instanceof NavigableMap
+        ? (NavigableMap<Integer, Tone>) row : new TreeMap<>(row);
+    this.tones = Collections.unmodifiableCollection(this.row.values());
   }
 
   /**
-   * Gets a copy of this MusicRow's pitch.
+   * Gets this MusicRow's pitch.
    * @return this MusicRow's pitch
    */
   public Pitch getPITCH() {
-    return this.PITCH.clone();
+    return this.PITCH;
   }
 
   /**
@@ -64,31 +72,43 @@ public class MusicRow {
   }
 
   /**
-   * Gets all the tones that make up this row.
+   * Gets all the tones that make up this row in order of start beat. The returned collection is
+   * a read-only view of this row.
    * @return a collection of this row's Tones
    */
   public Collection<Tone> getTones() {
-    return this.row.values();
+    return this.tones;
+  }
+
+  /**
+   * Visits every Tone in this row in order of start beat.
+   * @param visitor the visitor given each tone
+   */
+  public void forEachTone(ToneVisitor visitor) {
+    for (Tone tone : this.row.values()) {
+      visitor.visit(this.TIMBRE, this.PITCH.midiPitch(),
+          tone.getStart(), tone.getDuration(), tone.getVolume());
+    }
   }
 
   /**
    * Validates the given row by checking to see if any Tones exist within another Tone's duration.
-   * Also ensures that the Tone's start value matches its key value.
+   * Also ensures that the Tone's start value matches its key value. Since the keys are sorted,
+   * only neighbouring Tones need to be compared.
    * @param row the row being validated
    * @return whether the row is valid
    */
-  private boolean validRow(Map<Integer, Tone> row) {
-    for (Integer key : row.keySet()) {
-      Tone tone = row.get(key);
-      int duration = tone.getDuration();
-      for (int i = 1; i < duration; i++) {
-        if (row.containsKey(key + i)) {
-          return false;
-        }
+  private boolean validRow(SortedMap<Integer, Tone> row) {
+    int end = Integer.MIN_VALUE;
+    for (Map.Entry<Integer, Tone> e : row.entrySet()) {
+      Tone tone = e.getValue();
+      if (tone.getStart() != e.getKey()) {
+        return false;
       }
-      if (tone.getStart() != key) {
+      if (tone.getStart() < end) {
         return false;
       }
+      end = tone.getStart() + tone.getDuration();
     }
     return true;
   }
@@ -106,28 +126,50 @@ public class MusicRow {
     if (tone.getTimbre() != this.TIMBRE) {
       throw new IllegalArgumentException("given tone does not match this row's timbre");
     }
-    // check for overlaps
-    int beat = tone.getStart();
-    for (Integer key : this.row.keySet()) {
+    this.checkOverlap(tone.getStart(), tone.getDuration());
+    this.row.put(tone.getStart(), tone);
+  }
+
+  /**
+   * Checks that a tone starting at the given beat with the given duration would not overlap any
+   * tone in this row. Only the closest tone on either side of the given beat can collide.
+   * @param beat the start of the tone being checked
+   * @param duration the duration of the tone being checked
+   * @throws IllegalArgumentException if the tone would cause an overlap
+   */
+  void checkOverlap(int beat, int duration) {
+    Map.Entry<Integer, Tone> previous = this.row.floorEntry(beat);
+    if (previous != null) {
       // checks to see if the given beat is already taken
-      if (key == beat) {
+      if (previous.getKey() == beat) {
         throw new IllegalArgumentException("tone already exists at given beat");
       }
-      // checks to see if previous tones would overlap the given tone
-      else if (key < beat) {
-        Tone tone1 = this.row.get(key);
-        if (key + tone1.getDuration() - 1 >= beat) {
-          throw new IllegalArgumentException("previous tone overlaps given tone");
-        }
-      }
-      // checks to see if the given tone would overlap later tones
-      else {
-        if (beat + tone.getDuration() - 1 >= key) {
-          throw new IllegalArgumentException("given tone overlaps later tone");
-        }
+      // checks to see if the previous tone would overlap the given tone
+      if (previous.getKey() + previous.getValue().getDuration() - 1 >= beat) {
+        throw new IllegalArgumentException("previous tone overlaps given tone");
       }
     }
-    this.row.put(beat, tone);
+    // checks to see if the given tone would overlap the next tone
+    Map.Entry<Integer, Tone> next = this.row.higherEntry(beat);
+    if (next != null && beat + duration - 1 >= next.getKey()) {
+      throw new IllegalArgumentException("given tone overlaps later tone");
+    }
+  }
+
+  /**
+   * Adds the notes between the given indices of the given buffer to this row. The notes must
+   * already be sorted, match this row's pitch and timbre, and have been checked for overlaps with
+   * each other and with this row.
+   * @param notes the buffer holding the notes
+   * @param from the index of the first note added
+   * @param to the index after the last note added
+   */
+  void addTones(NoteBuffer notes, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int start = notes.getStart(i);
+      this.row.put(start, new Tone(this.PITCH, start, notes.getEnd(i) - start,
+          notes.getVolume(i), this.TIMBRE));
+    }
   }
 
   /**
@@ -157,13 +199,55 @@ public class MusicRow {
    * @return the Tone at the specified beat
    */
   public Tone getTone(int beat) {
-    Tone tone = this.row.get(beat);
-    if (tone != null) {
-      tone = tone.clone();
+    return this.row.get(beat);
+  }
+
+  /**
+   * Gets the tone that is sounding at the specified beat, whether it starts at that beat or
+   * started earlier and has not yet ended. Returns null if no tone covers the given beat.
+   * @param beat the beat or tick at which a Tone might be sounding
+   * @return the Tone covering the specified beat
+   */
+  public Tone getSoundingTone(int beat) {
+    Map.Entry<Integer, Tone> entry = this.row.floorEntry(beat);
+    if (entry == null) {
+      return null;
+    }
+    Tone tone = entry.getValue();
+    if (tone.getStart() != beat && tone.getStart() + tone.getDuration() <= beat) {
+      return null;
     }
     return tone;
   }
 
+  /**
+   * Visits every Tone in this row that is sounding at any beat from the given beat up to but not
+   * including the other given beat, in order of start beat. A Tone with no duration is treated as
+   * sounding on its start beat. Since the tones of a row never overlap, only the tone before the
+   * window can reach into it, so this takes logarithmic time plus the number of tones visited.
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(int fromBeat, int toBeat, ToneVisitor visitor) {
+    if (fromBeat >= toBeat) {
+      return;
+    }
+    int midiPitch = this.PITCH.midiPitch();
+    Map.Entry<Integer, Tone> previous = this.row.lowerEntry(fromBeat);
+    if (previous != null) {
+      Tone tone = previous.getValue();
+      if (tone.getStart() + tone.getDuration() > fromBeat) {
+        visitor.visit(this.TIMBRE, midiPitch,
+            tone.getStart(), tone.getDuration(), tone.getVolume());
+      }
+    }
+    for (Tone tone : this.row.subMap(fromBeat, true, toBeat, false).values()) {
+      visitor.visit(this.TIMBRE, midiPitch,
+          tone.getStart(), tone.getDuration(), tone.getVolume());
+    }
+  }
+
   /**
    * Returns true if this row contains no Tones.
    * @return whether this row contains any Tones
@@ -180,9 +264,7 @@ public class MusicRow {
     if (this.isEmpty()) {
       return 0;
     }
-    SortedSet<Integer> keys = (SortedSet<Integer>) this.row.keySet();
-    int lastBeat = keys.last();
-    Tone lastTone = this.row.get(lastBeat);
-    return lastBeat + lastTone.getDuration();
+    Tone lastTone = this.row.lastEntry().getValue();
+    return lastTone.getStart() + lastTone.getDuration();
   }
 }
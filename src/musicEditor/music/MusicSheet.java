@@ -1,5 +1,7 @@
 package musicEditor.music;
 
+import musicEditor.util.NoteBuffer;
+
 import java.util.*;
 
 /**
@@ -12,10 +14,15 @@ import java.util.*;
  * index or beat location in the corresponding tone list. Tones added must have the same timbre as
  * this MusicSheet. Allows for the removal of notes by specifying their pitch and then their index
  * in the corresponding array.</p>
+ * <p>Keeps its length and full pitch range up to date as tones are added and removed so that
+ * both can be read without walking the sheet.</p>
  */
 public class MusicSheet {
   private final int TIMBRE;
-  private SortedMap<Pitch, MusicRow> sheet;
+  private NavigableMap<Pitch, MusicRow> sheet;
+  private Collection<MusicRow> rows;
+  private int length;
+  private SortedSet<Pitch> range;
 
   /**
    * Constructs a MusicSheet with the given timbre and initializes the Map of Tone objects.
@@ -29,12 +36,17 @@ public class MusicSheet {
     }
     this.TIMBRE = TIMBRE;
     this.sheet = new TreeMap<>();
+    this.rows = Collections.unmodifiableCollection(this.sheet.values());
+    this.length = 0;
+    this.range = Collections.emptySortedSet();
   }
 
   /**
    * Constructs a MusicSheet with the given timbre and the given Map of Tone objects.
    * The given timbre must be a valid MIDI instrument code between 1 and 128 inclusive.
-   * The given sheet must be valid (no overlapping tones).
+   * The given sheet must be valid (no overlapping tones). A NavigableMap such as a TreeMap is
+   * kept as this MusicSheet's sheet without being copied, so the caller's map and this sheet
+   * share their rows. Any other SortedMap is copied into a TreeMap.
    * @param TIMBRE this MusicSheet's timbre (MIDI instrument code)
    * @param sheet this MusicSheet's sheet of musical tones
    */
@@ -43,7 +55,11 @@ public class MusicSheet {
     if (!this.validSheet(sheet)) {
       throw new IllegalArgumentException("given sheet is invalid");
     }
-    this.sheet = sheet;
+    this.sheet = sheet instanceof NavigableMap
+        ? (NavigableMap<Pitch, MusicRow>) sheet : new TreeMap<>(sheet);
+    this.rows = Collections.unmodifiableCollection(this.sheet.values());
+    this.updateLength();
+    this.updateRange();
   }
 
   /**
@@ -55,11 +71,44 @@ public class MusicSheet {
   }
 
   /**
-   * Gets all the music rows that make up this sheet.
+   * Gets all the music rows that make up this sheet in order of pitch. The returned collection is
+   * a read-only view of this sheet.
    * @return a collection of this sheet's music rows
    */
   public Collection<MusicRow> getRows() {
-    return this.sheet.values();
+    return this.rows;
+  }
+
+  /**
+   * Visits every Tone of the given pitch in this sheet in order of start beat.
+   * @param pitch the pitch of the tones being visited
+   * @param visitor the visitor given each tone
+   */
+  public void forEachTone(Pitch pitch, ToneVisitor visitor) {
+    MusicRow row = this.sheet.get(pitch);
+    if (row != null) {
+      row.forEachTone(visitor);
+    }
+  }
+
+  /**
+   * Visits every Tone in this sheet whose pitch is between the given pitches inclusive and that is
+   * sounding at any beat from the given beat up to but not including the other given beat. Tones
+   * are visited in order of pitch, then start beat.
+   * @param lowest the lowest pitch of the tones being visited
+   * @param highest the highest pitch of the tones being visited
+   * @param fromBeat the first beat of the window
+   * @param toBeat the beat after the last beat of the window
+   * @param visitor the visitor given each tone
+   */
+  public void forEachToneBetween(Pitch lowest, Pitch highest, int fromBeat, int toBeat,
+                                 ToneVisitor visitor) {
+    if (lowest.compareTo(highest) > 0) {
+      return;
+    }
+    for (MusicRow row : this.sheet.subMap(lowest, true, highest, true).values()) {
+      row.forEachToneBetween(fromBeat, toBeat, visitor);
+    }
   }
 
   /**
@@ -90,10 +139,71 @@ public class MusicSheet {
       throw new IllegalArgumentException("tone's timbre does not match this sheet's timbre");
     }
     Pitch pitch = tone.getPitch();
-    if (!this.sheet.containsKey(pitch)) {
-      this.sheet.put(pitch, new MusicRow(pitch, this.TIMBRE));
+    MusicRow row = this.sheet.get(pitch);
+    if (row == null) {
+      row = new MusicRow(pitch, this.TIMBRE);
+      row.addTone(tone);
+      this.sheet.put(pitch, row);
+      this.updateRange();
+    }
+    else {
+      row.addTone(tone);
+    }
+    int end = tone.getStart() + tone.getDuration();
+    if (end > this.length) {
+      this.length = end;
     }
-    this.sheet.get(pitch).addTone(tone);
+  }
+
+  /**
+   * Checks that none of the notes between the given indices of the given buffer would overlap a
+   * tone already in this sheet. The notes must be sorted and match this sheet's timbre.
+   * @param notes the buffer holding the notes
+   * @param from the index of the first note checked
+   * @param to the index after the last note checked
+   * @throws IllegalArgumentException if a note would cause an overlap
+   */
+  void checkTones(NoteBuffer notes, int from, int to) {
+    for (int i = from; i < to; i++) {
+      MusicRow row = this.sheet.get(Pitch.of(notes.getPitch(i)));
+      if (row != null) {
+        try {
+          row.checkOverlap(notes.getStart(i), notes.getEnd(i) - notes.getStart(i));
+        } catch (IllegalArgumentException e) {
+          throw MusicComposition.noteError(notes, i, e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the notes between the given indices of the given buffer to this sheet one row at a time.
+   * The notes must be sorted, match this sheet's timbre, and have been checked for overlaps with
+   * each other and with this sheet.
+   * @param notes the buffer holding the notes
+   * @param from the index of the first note added
+   * @param to the index after the last note added
+   */
+  void addTones(NoteBuffer notes, int from, int to) {
+    int i = from;
+    while (i < to) {
+      Pitch pitch = Pitch.of(notes.getPitch(i));
+      int end = i + 1;
+      while (end < to && notes.getPitch(end) == pitch.midiPitch()) {
+        end++;
+      }
+      MusicRow row = this.sheet.get(pitch);
+      if (row == null) {
+        row = new MusicRow(pitch, this.TIMBRE);
+        this.sheet.put(pitch, row);
+      }
+      row.addTones(notes, i, end);
+      if (row.length() > this.length) {
+        this.length = row.length();
+      }
+      i = end;
+    }
+    this.updateRange();
   }
 
   /**
@@ -109,8 +219,8 @@ public class MusicSheet {
     }
     MusicRow row = this.sheet.get(pitch);
     Tone result = row.removeTone(beat);
-    if (row.isEmpty()) {
-      this.sheet.remove(pitch);
+    if (result != null) {
+      this.removed(row, result);
     }
     return result;
   }
@@ -122,7 +232,72 @@ public class MusicSheet {
    * @return whether the tone was removed
    */
   public boolean removeTone(Tone tone) {
-    return this.sheet.get(tone.getPitch()).removeTone(tone);
+    MusicRow row = this.sheet.get(tone.getPitch());
+    if (row == null || !row.removeTone(tone)) {
+      return false;
+    }
+    this.removed(row, tone);
+    return true;
+  }
+
+  /**
+   * Updates this sheet after the given tone was removed from the given row. Removes the row if it
+   * became empty and refreshes the length and range if the tone was at either of their edges.
+   * @param row the row the tone was removed from
+   * @param tone the tone removed
+   */
+  private void removed(MusicRow row, Tone tone) {
+    if (row.isEmpty()) {
+      this.sheet.remove(row.getPITCH());
+      this.updateRange();
+    }
+    if (tone.getStart() + tone.getDuration() == this.length) {
+      this.updateLength();
+    }
+  }
+
+  /**
+   * Recomputes the length of this sheet from the lengths of its rows.
+   */
+  private void updateLength() {
+    this.length = 0;
+    for (MusicRow row : this.sheet.values()) {
+      int length = row.length();
+      if (this.length < length) {
+        this.length = length;
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the range of this sheet if its lowest or highest pitch has changed.
+   */
+  private void updateRange() {
+    if (this.sheet.isEmpty()) {
+      this.range = Collections.emptySortedSet();
+      return;
+    }
+    Pitch lowest = this.sheet.firstKey();
+    Pitch highest = this.sheet.lastKey();
+    if (this.range.isEmpty()
+        || !this.range.first().equals(lowest) || !this.range.last().equals(highest)) {
+      this.range = fullRange(lowest.midiPitch(), highest.midiPitch());
+    }
+  }
+
+  /**
+   * Returns a read-only sorted set of every Pitch from the given lowest MIDI pitch up to and
+   * including the given highest MIDI pitch.
+   * @param lowest the MIDI pitch of the lowest pitch in the range
+   * @param highest the MIDI pitch of the highest pitch in the range
+   * @return the full range of Pitches between the two
+   */
+  static SortedSet<Pitch> fullRange(int lowest, int highest) {
+    SortedSet<Pitch> range = new TreeSet<>();
+    for (int midiPitch = lowest; midiPitch <= highest; midiPitch++) {
+      range.add(Pitch.of(midiPitch));
+    }
+    return Collections.unmodifiableSortedSet(range);
   }
 
   /**
@@ -154,50 +329,15 @@ public class MusicSheet {
    * @return the number of beats in this sheet
    */
   public int length() {
-    if (this.isEmpty()) {
-      return 0;
-    }
-    List<MusicRow> values = new ArrayList<>(this.sheet.values());
-    int result = values.get(0).length();
-    for (int i = 1; i < values.size(); i++) {
-      int length = values.get(i).length();
-      if (result < length) {
-        result = length;
-      }
-    }
-    return result;
+    return this.length;
   }
 
   /**
    * Returns the full sorted range of Pitches in this sheet from lowest pitch to highest pitch.
+   * The returned set is read-only.
    * @return a full sorted range of Pitches in this sheet
    */
   public SortedSet<Pitch> range() {
-    if (this.isEmpty()) {
-      return new TreeSet<>();
-    }
-    // gets the sorted set of keys from the sheet. keys are already sorted in ascending order
-    // so they may be cast to a SortedSet
-    SortedSet<Pitch> keys = (SortedSet<Pitch>) this.sheet.keySet();
-    // gets the lowest and highest pitches from the set of keys
-    Pitch first = keys.first().clone();
-    Pitch last = keys.last().clone();
-    // gets a list of all the possible notes from the note enum
-    Note[] notes = Note.values();
-    // creates an empty sorted set to store the full range of notes
-    SortedSet<Pitch> range = new TreeSet<>();
-    // loop until the lowest pitch is equal to the highest pitch
-    // each loop, add the lowest pitch to the set and then increment to the next pitch
-    while (!first.equals(last)) {
-      range.add(first);
-      int newNoteIndex = (first.getNote().ordinal() + 1) % 12;
-      first.setNote(notes[newNoteIndex]);
-      if (first.getNote().equals(Note.C)) {
-        first.setOctave(first.getOctave() + 1);
-      }
-    }
-    // add the last pitch which was not added during the loop
-    range.add(last);
-    return range;
+    return this.range;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,305 @@
+package musicEditor.music;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Represents the order in which the beats of a composition are performed once its repetitions
+ * are unrolled.
+ * <p>A timeline is a jump table of segments. Each segment is a run of consecutive score beats
+ * played without a jump, kept as the performance beat it starts at, the score beat it starts at,
+ * and its length, so a repeated passage costs one segment rather than a copy of its tones.
+ * Segments are in order of performance beat, so the score beat played at any performance beat
+ * is found by binary search.</p>
+ * <p>Playback runs through the score until it reaches a repetition. A repetition that has not yet
+ * been made as many times as its loops sends playback back by its rewind; once it has, playback
+ * carries on past it, and the repetition is made afresh the next time it is reached. On the pass
+ * that carries on, a repetition's varied ending is skipped. Repetitions at beat zero or with no
+ * rewind do nothing.</p>
+ */
+public final class PerformanceTimeline {
+  private static final int MAX_SEGMENTS = 1 << 24;
+
+  private final int[] performanceStarts;
+  private final int[] scoreStarts;
+  private final int[] lengths;
+  private final int size;
+  private final int length;
+  private final int scoreLength;
+
+  /**
+   * Constructs a PerformanceTimeline from the given segments.
+   */
+  private PerformanceTimeline(int[] performanceStarts, int[] scoreStarts, int[] lengths,
+                              int size, int length, int scoreLength) {
+    this.performanceStarts = performanceStarts;
+    this.scoreStarts = scoreStarts;
+    this.lengths = lengths;
+    this.size = size;
+    this.length = length;
+    this.scoreLength = scoreLength;
+  }
+
+  /**
+   * Returns the timeline of a score of the given length without repetitions, which plays every
+   * beat once in order.
+   * @param scoreLength the number of beats in the score
+   * @return the timeline
+   */
+  public static PerformanceTimeline linear(int scoreLength) {
+    if (scoreLength <= 0) {
+      return new PerformanceTimeline(new int[0], new int[0], new int[0], 0, 0, 0);
+    }
+    return new PerformanceTimeline(
+        new int[] {0}, new int[] {0}, new int[] {scoreLength}, 1, scoreLength, scoreLength);
+  }
+
+  /**
+   * Returns the timeline of a score of the given length with the given features keyed by beat.
+   * Features other than repetitions are ignored. The score is taken to reach at least as far as
+   * the last feature.
+   * @param features the features of the score keyed by the beat they occur at
+   * @param scoreLength the number of beats in the score
+   * @return the timeline
+   * @throws IllegalArgumentException if the performance would be longer than the largest int
+   */
+  public static PerformanceTimeline of(SortedMap<Integer, Feature> features, int scoreLength) {
+    int count = 0;
+    int endingCount = 0;
+    int[] beats = new int[features.size()];
+    int[] rewinds = new int[features.size()];
+    int[] loops = new int[features.size()];
+    long[] endings = new long[features.size()];
+    for (Map.Entry<Integer, Feature> entry : features.entrySet()) {
+      scoreLength = Math.max(scoreLength, entry.getKey());
+      if (entry.getValue() instanceof Repetition && entry.getKey() > 0) {
+        Repetition repetition = (Repetition) entry.getValue();
+        if (repetition.getRewind() > 0) {
+          beats[count] = entry.getKey();
+          rewinds[count] = repetition.getRewind();
+          loops[count] = Math.max(repetition.getLoops(), 1);
+          if (repetition.getEnding() > 0) {
+            // packs the beat the ending starts at above the index of its repetition
+            long endingStart = Math.max(entry.getKey() - repetition.getEnding(), 0);
+            endings[endingCount++] = endingStart << 32 | count;
+          }
+          count++;
+        }
+      }
+    }
+    if (count == 0) {
+      return linear(scoreLength);
+    }
+    Arrays.sort(endings, 0, endingCount);
+
+    Builder timeline = new Builder();
+    int[] made = new int[count];
+    int segmentStart = 0;
+    int scan = 0;
+    while (true) {
+      // the next repetition is the first beyond where playback has reached
+      int next = Arrays.binarySearch(beats, 0, count, scan + 1);
+      next = next < 0 ? -next - 1 : next;
+      int limit = next == count ? scoreLength : beats[next];
+      // an ending on its last pass that starts before the next repetition is skipped first
+      int skip = -1;
+      int from = Arrays.binarySearch(endings, 0, endingCount, (long) scan << 32);
+      for (int i = from < 0 ? -from - 1 : from; i < endingCount; i++) {
+        if ((endings[i] >>> 32) > limit) {
+          break;
+        }
+        int repetition = (int) endings[i];
+        if (made[repetition] == loops[repetition]) {
+          timeline.add(segmentStart, (int) (endings[i] >>> 32));
+          skip = repetition;
+          break;
+        }
+      }
+      if (skip != -1) {
+        made[skip] = 0;
+        segmentStart = beats[skip];
+        scan = beats[skip];
+      }
+      else if (next == count) {
+        timeline.add(segmentStart, scoreLength);
+        break;
+      }
+      else if (made[next] < loops[next]) {
+        timeline.add(segmentStart, beats[next]);
+        made[next]++;
+        segmentStart = Math.max(beats[next] - rewinds[next], 0);
+        scan = segmentStart;
+      }
+      else {
+        made[next] = 0;
+        scan = beats[next];
+      }
+    }
+    return timeline.build(scoreLength);
+  }
+
+  /**
+   * Returns the number of beats in the performance.
+   * @return the length of the performance
+   */
+  public int length() {
+    return this.length;
+  }
+
+  /**
+   * Returns the number of beats in the score.
+   * @return the length of the score
+   */
+  public int scoreLength() {
+    return this.scoreLength;
+  }
+
+  /**
+   * Returns the number of segments in this timeline.
+   * @return the number of segments
+   */
+  public int segmentCount() {
+    return this.size;
+  }
+
+  /**
+   * Returns the index of the segment playing at the given performance beat, which is the number
+   * of segments if the beat is at or past the end of the performance. Found by binary search.
+   * @param performanceBeat the performance beat
+   * @return the index of the segment
+   */
+  public int segmentAt(int performanceBeat) {
+    if (performanceBeat >= this.length) {
+      return this.size;
+    }
+    int index = Arrays.binarySearch(this.performanceStarts, 0, this.size, performanceBeat);
+    return Math.max(index < 0 ? -index - 2 : index, 0);
+  }
+
+  /**
+   * Gets the performance beat the given segment starts at.
+   * @param segment the index of the segment
+   * @return the first performance beat of the segment
+   */
+  public int performanceStart(int segment) {
+    return this.performanceStarts[this.checkSegment(segment)];
+  }
+
+  /**
+   * Gets the score beat the given segment starts at.
+   * @param segment the index of the segment
+   * @return the first score beat of the segment
+   */
+  public int scoreStart(int segment) {
+    return this.scoreStarts[this.checkSegment(segment)];
+  }
+
+  /**
+   * Gets the number of beats in the given segment.
+   * @param segment the index of the segment
+   * @return the length of the segment
+   */
+  public int segmentLength(int segment) {
+    return this.lengths[this.checkSegment(segment)];
+  }
+
+  /**
+   * Returns the score beat played at the given performance beat. Beats before the performance
+   * map to beat zero, and beats past its end map as far past the end of the score.
+   * @param performanceBeat the performance beat
+   * @return the score beat
+   */
+  public int scoreBeat(int performanceBeat) {
+    if (performanceBeat < 0) {
+      return 0;
+    }
+    int segment = this.segmentAt(performanceBeat);
+    if (segment == this.size) {
+      return this.scoreLength + (performanceBeat - this.length);
+    }
+    return this.scoreStarts[segment] + performanceBeat - this.performanceStarts[segment];
+  }
+
+  /**
+   * Returns a performance beat at which the given score beat is played, choosing the time it is
+   * played nearest after the given performance beat, or else the first time it is played. A score
+   * beat that is never played maps to the start of the next segment that plays a later beat.
+   * @param scoreBeat the score beat
+   * @param near the performance beat to search from
+   * @return the performance beat
+   */
+  public int performanceBeat(int scoreBeat, int near) {
+    if (scoreBeat >= this.scoreLength || this.size == 0) {
+      return this.length + Math.max(scoreBeat - this.scoreLength, 0);
+    }
+    int from = Math.min(this.segmentAt(Math.max(near, 0)), this.size);
+    int skipped = -1;
+    for (int pass = 0; pass < 2; pass++) {
+      int start = pass == 0 ? from : 0;
+      int end = pass == 0 ? this.size : from;
+      for (int segment = start; segment < end; segment++) {
+        int offset = scoreBeat - this.scoreStarts[segment];
+        if (offset >= 0 && offset < this.lengths[segment]) {
+          return this.performanceStarts[segment] + offset;
+        }
+        if (skipped == -1 && offset < 0) {
+          skipped = segment;
+        }
+      }
+    }
+    return skipped == -1 ? this.length : this.performanceStarts[skipped];
+  }
+
+  /**
+   * Checks that the given index is that of a segment.
+   */
+  private int checkSegment(int segment) {
+    if (segment < 0 || segment >= this.size) {
+      throw new IndexOutOfBoundsException("no segment " + segment);
+    }
+    return segment;
+  }
+
+  /**
+   * Collects the segments of a timeline as they are played.
+   */
+  private static final class Builder {
+    private int[] performanceStarts = new int[4];
+    private int[] scoreStarts = new int[4];
+    private int[] lengths = new int[4];
+    private int size;
+    private long length;
+
+    /**
+     * Adds the segment playing the score from one given beat up to the other, if it is not empty.
+     */
+    private void add(int scoreStart, int scoreEnd) {
+      if (scoreEnd <= scoreStart) {
+        return;
+      }
+      if (this.length + scoreEnd - scoreStart > Integer.MAX_VALUE
+          || this.size == MAX_SEGMENTS) {
+        throw new IllegalArgumentException("the repetitions make the performance too long");
+      }
+      if (this.size == this.lengths.length) {
+        this.performanceStarts = Arrays.copyOf(this.performanceStarts, this.size * 2);
+        this.scoreStarts = Arrays.copyOf(this.scoreStarts, this.size * 2);
+        this.lengths = Arrays.copyOf(this.lengths, this.size * 2);
+      }
+      this.performanceStarts[this.size] = (int) this.length;
+      this.scoreStarts[this.size] = scoreStart;
+      this.lengths[this.size] = scoreEnd - scoreStart;
+      this.size++;
+      this.length += scoreEnd - scoreStart;
+    }
+
+    /**
+     * Returns the timeline of the segments added, for a score of the given length.
+     */
+    private PerformanceTimeline build(int scoreLength) {
+      return new PerformanceTimeline(this.performanceStarts, this.scoreStarts, this.lengths,
+          this.size, (int) this.length, scoreLength);
+    }
+  }
+}
@@ -3,55 +3,62 @@ package musicEditor.music;
 /**
  * Represents a pitch in music. Contains a Note enum to represent this Pitch's pitch class and
  * an octave to represent the octave of this pitch.
+ * <p>Pitches are immutable and there is exactly one instance for each of the 128 MIDI pitches,
+ * obtained through {@link #of(int)} or {@link #of(Note, int)}. Pitches may therefore be shared
+ * freely and compared by their MIDI pitch.</p>
  */
-public class Pitch implements Comparable<Pitch> {
-  private Note note;
-  private int octave;
+public final class Pitch implements Comparable<Pitch> {
+  private static final Pitch[] PITCHES = new Pitch[128];
+
+  static {
+    for (int midiPitch = 0; midiPitch < PITCHES.length; midiPitch++) {
+      PITCHES[midiPitch] = new Pitch(midiPitch);
+    }
+  }
+
+  private final int midiPitch;
+  private final Note note;
+  private final int octave;
 
   /**
-   * Constructs a Pitch. Initializes note and octave fields. Requires that octave is greater than
-   * or equal to -1.
-   * @param note this Pitch's note
-   * @param octave this Pitch's octave
-   * @throws IllegalArgumentException if octave is less than -1
+   * Constructs the Pitch with the given MIDI pitch. Only used to fill the cache of pitches.
+   * @param midiPitch the midiPitch value
    */
-  public Pitch(Note note, int octave) {
-    this.note = note;
-    if (!(octave >= -1)) {
-      throw new IllegalArgumentException("octave must be greater than or equal to -1");
-    }
-    this.octave = octave;
+  private Pitch(int midiPitch) {
+    this.midiPitch = midiPitch;
+    this.octave = (midiPitch / 12) - 1;
+    this.note = Note.values()[midiPitch % 12];
   }
 
   /**
-   * Constructs a Pitch given the specified midiPitch to represent a pitch.
+   * Gets the Pitch with the given MIDI pitch.
    * @param midiPitch the midiPitch value
+   * @return the pitch with the given MIDI pitch
+   * @throws IllegalArgumentException if midiPitch is not between 0 and 127 inclusive
    */
-  public Pitch(int midiPitch) {
+  public static Pitch of(int midiPitch) {
     if (midiPitch < 0) {
       throw new IllegalArgumentException("midiPitch cannot be negative");
     }
     if (midiPitch > 127) {
       throw new IllegalArgumentException("midiPitch cannot be greater than 127");
     }
-    this.octave = (midiPitch / 12) - 1;
-    this.note = Note.values()[midiPitch % 12];
+    return PITCHES[midiPitch];
   }
 
   /**
-   * Sets this Pitch's note.
-   * @param note new note
+   * Gets the Pitch with the given note and octave. Requires that octave is greater than
+   * or equal to -1 and that the pitch is within the MIDI range.
+   * @param note the Pitch's note
+   * @param octave the Pitch's octave
+   * @return the pitch with the given note and octave
+   * @throws IllegalArgumentException if octave is less than -1 or the pitch is above G9
    */
-  public void setNote(Note note) {
-    this.note = note;
-  }
-
-  /**
-   * Sets this Pitch's octave.
-   * @param octave new octave
-   */
-  public void setOctave(int octave) {
-    this.octave = octave;
+  public static Pitch of(Note note, int octave) {
+    if (!(octave >= -1)) {
+      throw new IllegalArgumentException("octave must be greater than or equal to -1");
+    }
+    return of(((octave + 1) * 12) + note.ordinal());
   }
 
   /**
@@ -74,7 +81,7 @@ public class Pitch implements Comparable<Pitch> {
    * @return the MIDI pitch representation of this pitch
    */
   public int midiPitch() {
-    return ((this.getOctave() + 1) * 12) + this.getNote().ordinal();
+    return this.midiPitch;
   }
 
   @Override
@@ -84,15 +91,12 @@ public class Pitch implements Comparable<Pitch> {
 
     Pitch pitch = (Pitch) o;
 
-    if (this.getOctave() != pitch.getOctave()) return false;
-    return this.getNote() == pitch.getNote();
+    return this.midiPitch == pitch.midiPitch;
   }
 
   @Override
   public int hashCode() {
-    int result = this.getNote().hashCode();
-    result = 31 * result + this.getOctave();
-    return result;
+    return this.midiPitch;
   }
 
   @Override
@@ -100,18 +104,8 @@ public class Pitch implements Comparable<Pitch> {
     return this.getNote().toString() + this.getOctave();
   }
 
-  @Override
-  public Pitch clone() {
-    return new Pitch(this.note, this.octave);
-  }
-
   @Override
   public int compareTo(Pitch o) {
-    if (this.getOctave() == o.getOctave()) {
-      return this.note.compareTo(o.note);
-    }
-    else {
-      return this.getOctave() - o.getOctave();
-    }
+    return Integer.compare(this.midiPitch, o.midiPitch);
   }
 }
@@ -3,10 +3,14 @@ package musicEditor.music;
 /**
  * Represents a repetition in a piece of music. Contains information such as the number of
  * repetitions desired and how many beats back this repetition should send the music.
+ * A repetition may also end with a varied ending: a number of beats just before it that are
+ * played on every pass that repeats and skipped on the last pass, which goes straight on from
+ * the start of the ending to the beat after the repetition.
  */
 public class Repetition implements Feature {
   private int rewind;
   private int loops;
+  private int ending;
 
   /**
    * Constructs a new Repetition with the given rewind value. Requires that rewind be
@@ -18,6 +22,7 @@ public class Repetition implements Feature {
       throw new IllegalArgumentException("to cannot be less than zero");
     }
     this.rewind = rewind;
+    this.loops = 1;
   }
 
   /**
@@ -34,6 +39,22 @@ public class Repetition implements Feature {
     this.loops = loops;
   }
 
+  /**
+   * Constructs a new Repetition with the given rewind value, loops, and varied ending. Requires
+   * that rewind be non-negative, that loops be greater than one, and that the ending be
+   * non-negative and shorter than the rewind.
+   * @param rewind how many beats or ticks this repetitions will rewind the music
+   * @param loops number of loops this Repetition will make
+   * @param ending how many beats before this Repetition are skipped on the last pass
+   */
+  public Repetition(int rewind, int loops, int ending) {
+    this(rewind, loops);
+    if (ending < 0 || (ending > 0 && ending >= rewind)) {
+      throw new IllegalArgumentException("ending must be non-negative and less than rewind");
+    }
+    this.ending = ending;
+  }
+
   /**
    * Gets this Repetition's rewind value.
    * @return this Repetition's rewind value
@@ -63,4 +84,19 @@ public class Repetition implements Feature {
   public void setLoops(int loops) {
     this.loops = loops;
   }
+
+  /**
+   * Gets the number of beats of this Repetition's varied ending, which is zero if it has none.
+   * @return this Repetition's ending value
+   */
+  public int getEnding() {
+    return ending;
+  }
+
+  /**
+   * Sets this Repetition's ending value.
+   */
+  public void setEnding(int ending) {
+    this.ending = ending;
+  }
 }
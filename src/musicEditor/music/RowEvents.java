@@ -0,0 +1,179 @@
+package musicEditor.music;
+
+/**
+ * Merges the tones of the rows of a snapshot into one stream of note on and note off events in
+ * order of beat. Only the next event of each row is held, in a binary heap, so a whole
+ * composition is turned into events however long it is without being copied.
+ * <p>Each event is packed into a long as the beat, then whether it is a note on, then the row,
+ * which is the timbre times 128 plus the pitch. Events are therefore ordered by beat, with a note
+ * off before a note on at the same beat, so a tone that ends where the next one of its pitch
+ * starts is released before it is struck again.</p>
+ * <p>Each row keeps the index of its next tone to start. Taking a note on from the heap puts the
+ * tone's note off in its place, and taking a note off puts in the note on of the row's next
+ * tone.</p>
+ */
+public final class RowEvents {
+  private static final int ROWS = 129 * 128;
+  private static final long NOTE_ON = 0x8000;
+
+  private final long[] heap;
+  private final int[] next;
+  private CompositionSnapshot snapshot;
+  private int size;
+
+  /**
+   * Constructs an empty RowEvents for the empty snapshot.
+   */
+  public RowEvents() {
+    this.heap = new long[ROWS];
+    this.next = new int[ROWS];
+    this.snapshot = CompositionSnapshot.EMPTY;
+    this.size = 0;
+  }
+
+  /**
+   * Empties the heap and takes the tones of rows from the given snapshot from now on.
+   * @param snapshot the snapshot whose tones are merged
+   */
+  public void reset(CompositionSnapshot snapshot) {
+    this.snapshot = snapshot;
+    this.size = 0;
+  }
+
+  /**
+   * Starts the given row from the tone at the given index, putting that tone's note on in the
+   * heap if the row has such a tone.
+   * @param timbre the timbre of the row
+   * @param midiPitch the pitch of the row
+   * @param index the index of the first tone of the row to start
+   */
+  public void startRow(int timbre, int midiPitch, int index) {
+    int row = timbre * 128 + midiPitch;
+    this.next[row] = index;
+    if (index < this.snapshot.rowSize(timbre, midiPitch)) {
+      this.push(((long) this.snapshot.startAt(timbre, midiPitch, index) << 16) | NOTE_ON | row);
+    }
+  }
+
+  /**
+   * Starts the given row with the tone at the given index already sounding, putting its note off
+   * in the heap. The row carries on from the tone after it.
+   * @param timbre the timbre of the row
+   * @param midiPitch the pitch of the row
+   * @param index the index of the sounding tone
+   */
+  public void startRowSounding(int timbre, int midiPitch, int index) {
+    int row = timbre * 128 + midiPitch;
+    this.next[row] = index + 1;
+    this.push(((long) this.snapshot.startAt(timbre, midiPitch, index)
+        + this.snapshot.durationAt(timbre, midiPitch, index)) << 16 | row);
+  }
+
+  /**
+   * Returns true if there are no events left.
+   */
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Returns the next event without taking it.
+   */
+  public long peek() {
+    return this.heap[0];
+  }
+
+  /**
+   * Takes the next event and puts the event that follows it in its row in the heap.
+   * @return the event taken
+   */
+  public long pop() {
+    long event = this.heap[0];
+    this.remove();
+    int row = (int) (event & 0x7FFF);
+    int timbre = row >>> 7;
+    int midiPitch = row & 0x7F;
+    int index = this.next[row];
+    if (isNoteOn(event)) {
+      this.next[row] = index + 1;
+      this.push((beat(event) + this.snapshot.durationAt(timbre, midiPitch, index)) << 16 | row);
+    }
+    else if (index < this.snapshot.rowSize(timbre, midiPitch)) {
+      this.push(((long) this.snapshot.startAt(timbre, midiPitch, index) << 16) | NOTE_ON | row);
+    }
+    return event;
+  }
+
+  /**
+   * Gets the volume of the tone started by the given note on, which must be the event last taken
+   * from its row.
+   * @param event a note on taken by {@link #pop()}
+   * @return the volume of its tone
+   */
+  public int volumeOf(long event) {
+    int row = (int) (event & 0x7FFF);
+    return this.snapshot.volumeAt(row >>> 7, row & 0x7F, this.next[row] - 1);
+  }
+
+  /**
+   * Gets the beat of the given event.
+   */
+  public static long beat(long event) {
+    return event >>> 16;
+  }
+
+  /**
+   * Returns true if the given event is a note on.
+   */
+  public static boolean isNoteOn(long event) {
+    return (event & NOTE_ON) != 0;
+  }
+
+  /**
+   * Gets the timbre of the given event.
+   */
+  public static int timbre(long event) {
+    return (int) (event & 0x7FFF) >>> 7;
+  }
+
+  /**
+   * Gets the pitch of the given event.
+   */
+  public static int midiPitch(long event) {
+    return (int) event & 0x7F;
+  }
+
+  /**
+   * Adds the given event to the heap.
+   */
+  private void push(long event) {
+    int i = this.size;
+    while (i > 0 && this.heap[(i - 1) / 2] > event) {
+      this.heap[i] = this.heap[(i - 1) / 2];
+      i = (i - 1) / 2;
+    }
+    this.heap[i] = event;
+    this.size++;
+  }
+
+  /**
+   * Removes the smallest event of the heap.
+   */
+  private void remove() {
+    this.size--;
+    long event = this.heap[this.size];
+    int i = 0;
+    while (2 * i + 1 < this.size) {
+      int child = 2 * i + 1;
+      if (child + 1 < this.size && this.heap[child + 1] < this.heap[child]) {
+        child++;
+      }
+      if (this.heap[child] >= event) {
+        break;
+      }
+      this.heap[i] = this.heap[child];
+      i = child;
+    }
+    this.heap[i] = event;
+  }
+}
@@ -0,0 +1,473 @@
+package musicEditor.music;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Plays a composition by sending its note events straight to a receiver as they come due, rather
+ * than turning the whole composition into a Sequence for a sequencer.
+ * <p>A scheduler thread of high priority keeps a short window of events ahead of the playhead.
+ * The next event of every row of the composition's snapshot is kept by a {@link RowEvents}, so
+ * events are produced in order while at most one event per row is held, however long the
+ * composition is. Beats are played in the order of a {@link PerformanceTimeline}: the heap
+ * holds the events of one segment at a time, and at the end of a segment the tones still sounding
+ * are released and the heap is refilled from the start of the next, so repeated passages are
+ * played again without being copied. Positions given to and returned by a scheduler are
+ * performance beats. When the receiver belongs to a synthesizer, events are sent a little ahead
+ * of time stamped with the moment they should sound, and the synthesizer places them exactly.
+ * Otherwise the thread sends each event itself when it is due, sleeping until just before and
+ * spinning the rest of the way.</p>
+ * <p>Each timbre plays on a channel assigned in order of timbre by a {@link ChannelMap}. The
+ * program of each channel is kept, and a note on whose timbre is not the channel's program is sent
+ * after a program change to its instrument, so timbres that share a channel once there are more
+ * than fifteen still play their own instruments.</p>
+ */
+public class StreamingScheduler {
+  private static final int ALL_NOTES_OFF = 123;
+  private static final int ROWS = 129 * 128;
+  private static final long LOOKAHEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(40);
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+  private final Receiver receiver;
+  private final Synthesizer synthesizer;
+  private final ReentrantLock lock;
+  private final Condition changed;
+  private final RowEvents events;
+  // the rows whose last event sent was a note on, one bit per row, indexed by timbre * 128 + pitch
+  private final long[] sounding;
+  private final ChannelMap channels;
+  // the program last sent on each channel, or -1 if it is not known
+  private final int[] programs;
+  private Thread thread;
+  private CompositionSnapshot snapshot;
+  private PerformanceTimeline timeline;
+  private int segment;
+  private int tempo;
+  private boolean running;
+  private int beat;
+  private long startNanos;
+  private int scheduledBeat;
+  private long lastTimeStamp;
+
+  /**
+   * Constructs a StreamingScheduler that sends events to the given receiver when they are due.
+   * @param receiver the receiver played through
+   */
+  public StreamingScheduler(Receiver receiver) {
+    this(receiver, null);
+  }
+
+  /**
+   * Constructs a StreamingScheduler that sends events ahead of time to the given open synthesizer,
+   * stamped with the time they should sound.
+   * @param synthesizer the synthesizer played through
+   * @throws MidiUnavailableException if the synthesizer has no receiver
+   */
+  public StreamingScheduler(Synthesizer synthesizer) throws MidiUnavailableException {
+    this(synthesizer.getReceiver(), synthesizer);
+  }
+
+  private StreamingScheduler(Receiver receiver, Synthesizer synthesizer) {
+    this.receiver = receiver;
+    this.synthesizer = synthesizer;
+    this.lock = new ReentrantLock();
+    this.changed = this.lock.newCondition();
+    this.events = new RowEvents();
+    this.sounding = new long[ROWS / 64];
+    this.channels = new ChannelMap();
+    this.programs = new int[16];
+    this.forgetPrograms();
+    this.snapshot = CompositionSnapshot.EMPTY;
+    this.timeline = PerformanceTimeline.linear(0);
+    this.tempo = 1;
+  }
+
+  /**
+   * Sets the snapshot being played, which is played once from start to end. If it is playing,
+   * the events not yet sent are taken from the new snapshot, and tones still sounding in it are
+   * left to finish.
+   * @param snapshot the snapshot to play
+   */
+  public void setSnapshot(CompositionSnapshot snapshot) {
+    this.setSnapshot(snapshot, PerformanceTimeline.linear(snapshot.length()));
+  }
+
+  /**
+   * Sets the snapshot being played and the order its beats are played in. If it is playing, the
+   * events not yet sent are taken from the new snapshot, and tones still sounding in it are left
+   * to finish.
+   * @param snapshot the snapshot to play
+   * @param timeline the order of the beats of the snapshot
+   */
+  public void setSnapshot(CompositionSnapshot snapshot, PerformanceTimeline timeline) {
+    this.lock.lock();
+    try {
+      this.snapshot = snapshot;
+      this.timeline = timeline;
+      boolean moved = this.channels.assignAll(snapshot);
+      if (this.running) {
+        if (moved) {
+          this.silence();
+          this.forgetPrograms();
+        }
+        this.rebuild(this.scheduledBeat, true, -1);
+        this.changed.signalAll();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the tempo in microseconds per beat. Playback carries on from the current position.
+   * @param tempo the tempo
+   * @throws IllegalArgumentException if tempo is not positive
+   */
+  public void setTempo(int tempo) {
+    if (tempo <= 0) {
+      throw new IllegalArgumentException("tempo must be positive");
+    }
+    this.lock.lock();
+    try {
+      if (this.running) {
+        long now = System.nanoTime();
+        this.startNanos = now - (long) ((double) (now - this.startNanos) * tempo / this.tempo);
+        this.changed.signalAll();
+      }
+      this.tempo = tempo;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the beat being played, or the beat playback will start from.
+   * @return the current beat
+   */
+  public int getBeat() {
+    this.lock.lock();
+    try {
+      if (!this.running) {
+        return this.beat;
+      }
+      long elapsed = (System.nanoTime() - this.startNanos) / this.nanosPerBeat();
+      return (int) Math.min(this.beat + elapsed, Math.max(this.timeline.length(), this.beat));
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Moves playback to the given beat, silencing any tones that are sounding.
+   * @param beat the beat to move to
+   */
+  public void setBeat(int beat) {
+    this.lock.lock();
+    try {
+      this.beat = Math.max(beat, 0);
+      if (this.running) {
+        this.silence();
+        this.startNanos = System.nanoTime();
+        this.rebuild(this.beat, false, -1);
+        this.changed.signalAll();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Starts playing from the current beat.
+   */
+  public void play() {
+    this.lock.lock();
+    try {
+      if (this.running) {
+        return;
+      }
+      this.running = true;
+      this.startNanos = System.nanoTime();
+      this.forgetPrograms();
+      this.rebuild(this.beat, false, -1);
+      if (this.thread == null) {
+        this.thread = new Thread(this::run, "StreamingScheduler");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MAX_PRIORITY);
+        this.thread.start();
+      }
+      this.changed.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Stops playing, keeping the current beat and silencing any tones that are sounding.
+   */
+  public void pause() {
+    this.lock.lock();
+    try {
+      if (this.running) {
+        this.beat = this.getBeat();
+        this.running = false;
+        this.silence();
+        this.changed.signalAll();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns true while playing.
+   * @return whether this scheduler is playing
+   */
+  public boolean isRunning() {
+    this.lock.lock();
+    try {
+      return this.running;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Runs the scheduler thread, which sends every event due within the window and then waits
+   * until the next one is.
+   */
+  private void run() {
+    this.lock.lock();
+    try {
+      while (true) {
+        while (!this.running) {
+          this.changed.await();
+        }
+        long now = System.nanoTime();
+        long deviceMicros =
+            this.synthesizer == null ? -1 : this.synthesizer.getMicrosecondPosition();
+        boolean timed = deviceMicros >= 0;
+        long horizon = timed ? now + LOOKAHEAD_NANOS : now;
+        while (this.segment < this.timeline.segmentCount()) {
+          boolean inSegment = this.inSegment();
+          long next = this.nextBeat(inSegment);
+          long eventNanos = this.eventNanos(next);
+          if (eventNanos > horizon) {
+            break;
+          }
+          long timeStamp = timed ? deviceMicros + Math.max(eventNanos - now, 0) / 1000 : -1;
+          if (inSegment) {
+            this.send(this.events.pop(), timeStamp);
+            this.scheduledBeat = (int) next + 1;
+          }
+          else {
+            // the segment has ended, so playback jumps to wherever the next one starts
+            this.rebuild((int) next, false, timeStamp);
+          }
+        }
+
+        long due;
+        boolean playing = this.segment < this.timeline.segmentCount();
+        if (playing) {
+          due = this.eventNanos(this.nextBeat(this.inSegment()))
+              - (timed ? LOOKAHEAD_NANOS / 2 : SPIN_NANOS);
+        }
+        else {
+          // every event has been sent, so playback ends once the last beat has passed
+          due = this.eventNanos(Math.max(this.timeline.length(), this.beat));
+          if (now >= due) {
+            this.beat = Math.max(this.timeline.length(), this.beat);
+            this.running = false;
+            continue;
+          }
+        }
+        if (due > now) {
+          this.changed.awaitNanos(due - now);
+        }
+        else if (playing && !timed) {
+          // the last stretch before an event is spun through, since sleeping is too coarse
+          long target = this.eventNanos(this.nextBeat(this.inSegment()));
+          this.lock.unlock();
+          try {
+            while (System.nanoTime() < target) {
+              Thread.yield();
+            }
+          } finally {
+            this.lock.lock();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns true if the next event of the heap belongs to the segment being played: a note on
+   * before the end of the segment, or a note off no later than its end.
+   */
+  private boolean inSegment() {
+    if (this.events.isEmpty()) {
+      return false;
+    }
+    long event = this.events.peek();
+    long beat = RowEvents.beat(event);
+    long end = this.timeline.scoreStart(this.segment) + this.timeline.segmentLength(this.segment);
+    return RowEvents.isNoteOn(event) ? beat < end : beat <= end;
+  }
+
+  /**
+   * Returns the performance beat of the next event of the heap if it belongs to the segment being
+   * played, or else of the end of that segment.
+   */
+  private long nextBeat(boolean inSegment) {
+    long scoreBeat = inSegment ? RowEvents.beat(this.events.peek())
+        : this.timeline.scoreStart(this.segment) + this.timeline.segmentLength(this.segment);
+    return this.timeline.performanceStart(this.segment)
+        + scoreBeat - this.timeline.scoreStart(this.segment);
+  }
+
+  /**
+   * Returns the time at which the given performance beat is played.
+   */
+  private long eventNanos(long beat) {
+    return this.startNanos + (beat - this.beat) * this.nanosPerBeat();
+  }
+
+  /**
+   * Returns the length of a beat in nanoseconds.
+   */
+  private long nanosPerBeat() {
+    return this.tempo * 1000L;
+  }
+
+  /**
+   * Sends the given event, just taken from the heap, and marks whether its row is sounding. A note
+   * on is preceded by a program change if its channel is not already playing its timbre.
+   */
+  private void send(long event, long timeStamp) {
+    int timbre = RowEvents.timbre(event);
+    int midiPitch = RowEvents.midiPitch(event);
+    int row = timbre * 128 + midiPitch;
+    int channel = this.channels.channelOf(timbre);
+    if (RowEvents.isNoteOn(event)) {
+      int volume = Math.min(this.events.volumeOf(event), 127);
+      if (this.programs[channel] != timbre - 1) {
+        this.send(ShortMessage.PROGRAM_CHANGE, channel, timbre - 1, 0, timeStamp);
+        this.programs[channel] = timbre - 1;
+      }
+      this.send(ShortMessage.NOTE_ON, channel, midiPitch, volume, timeStamp);
+      this.sounding[row >>> 6] |= 1L << row;
+    }
+    else {
+      this.send(ShortMessage.NOTE_OFF, channel, midiPitch, 0, timeStamp);
+      this.sounding[row >>> 6] &= ~(1L << row);
+    }
+  }
+
+  /**
+   * Refills the heap with the first events of every row from the score beat played at the given
+   * performance beat on. If sounding tones are kept, a tone that is still sounding and reaches
+   * that beat has its note off put in the heap; every other sounding tone is released with the
+   * given time stamp.
+   */
+  private void rebuild(int performanceBeat, boolean keepSounding, long timeStamp) {
+    this.events.reset(this.snapshot);
+    this.scheduledBeat = performanceBeat;
+    this.segment = this.timeline.segmentAt(performanceBeat);
+    boolean playing = this.segment < this.timeline.segmentCount();
+    int fromBeat = this.timeline.scoreBeat(performanceBeat);
+    for (int timbre = 1; timbre <= 128; timbre++) {
+      if (this.snapshot.range(timbre).isEmpty()
+          && (this.sounding[timbre * 2] | this.sounding[timbre * 2 + 1]) == 0) {
+        continue;
+      }
+      for (int midiPitch = 0; midiPitch < 128; midiPitch++) {
+        int row = timbre * 128 + midiPitch;
+        boolean isSounding = (this.sounding[row >>> 6] & (1L << row)) != 0;
+        int rowSize = playing ? this.snapshot.rowSize(timbre, midiPitch) : 0;
+        int index = rowSize == 0 ? 0 : this.lowerBound(timbre, midiPitch, rowSize, fromBeat);
+        if (isSounding && keepSounding && index > 0
+            && this.snapshot.startAt(timbre, midiPitch, index - 1)
+            + this.snapshot.durationAt(timbre, midiPitch, index - 1) >= fromBeat) {
+          this.events.startRowSounding(timbre, midiPitch, index - 1);
+          continue;
+        }
+        if (isSounding) {
+          this.send(ShortMessage.NOTE_OFF, this.channels.channelOf(timbre), midiPitch, 0,
+              timeStamp);
+          this.sounding[row >>> 6] &= ~(1L << row);
+        }
+        if (rowSize > 0) {
+          this.events.startRow(timbre, midiPitch, index);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the first tone of the given row that starts at or after the given beat.
+   */
+  private int lowerBound(int timbre, int midiPitch, int rowSize, int beat) {
+    int low = 0;
+    int high = rowSize;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (this.snapshot.startAt(timbre, midiPitch, mid) < beat) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Forgets the program of every channel, so the next note on of each channel is sent after a
+   * program change to its instrument.
+   */
+  private void forgetPrograms() {
+    Arrays.fill(this.programs, -1);
+  }
+
+  /**
+   * Releases every sounding tone on every channel, both now and after the last event sent ahead
+   * of time, and forgets which tones are sounding.
+   */
+  private void silence() {
+    for (int channel = 0; channel < 16; channel++) {
+      if (channel != ChannelMap.PERCUSSION_CHANNEL) {
+        this.send(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0, -1);
+        if (this.lastTimeStamp >= 0 && this.synthesizer != null
+            && this.lastTimeStamp > this.synthesizer.getMicrosecondPosition()) {
+          this.send(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0,
+              this.lastTimeStamp + 1);
+        }
+      }
+    }
+    Arrays.fill(this.sounding, 0);
+  }
+
+  /**
+   * Sends a message of the given command, channel, and data to the receiver.
+   */
+  private void send(int command, int channel, int data1, int data2, long timeStamp) {
+    try {
+      this.receiver.send(new ShortMessage(command, channel, data1, data2), timeStamp);
+      if (timeStamp >= 0) {
+        this.lastTimeStamp = timeStamp;
+      }
+    } catch (InvalidMidiDataException e) {
+      e.printStackTrace();
+    }
+  }
+}
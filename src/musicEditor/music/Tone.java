@@ -8,13 +8,14 @@ package musicEditor.music;
  * Duration is an int measured in MIDI ticks.
  * Volume is an int representing the tones loudness.
  * Timbre is an int representing MIDI instrument codes between 1 and 128 inclusive.
+ * Tones are immutable, so the Tones held by a composition can be handed out without copying.
  */
-public class Tone {
-  private Pitch pitch;
-  private int start;
-  private int duration;
-  private int volume;
-  private int timbre;
+public final class Tone {
+  private final Pitch pitch;
+  private final int start;
+  private final int duration;
+  private final int volume;
+  private final int timbre;
 
   /**
    * Constructs a Tone.
@@ -45,46 +46,6 @@ public class Tone {
     this.timbre = timbre;
   }
 
-  /**
-   * Sets this Tone's pitch.
-   * @param pitch this Tone's pitch
-   */
-  public void setPitch(Pitch pitch) {
-    this.pitch = pitch;
-  }
-
-  /**
-   * Sets this Tone's start
-   * @param start this Tone's start
-   */
-  public void setStart(int start) {
-    this.start = start;
-  }
-
-  /**
-   * Sets this Tone's duration.
-   * @param duration this Tone's duration
-   */
-  public void setDuration(int duration) {
-    this.duration = duration;
-  }
-
-  /**
-   * Sets this Tone's volume.
-   * @param volume this Tone's volume
-   */
-  public void setVolume(int volume) {
-    this.volume = volume;
-  }
-
-  /**
-   * Sets this Tone's timbre.
-   * @param timbre this Tone's timbre
-   */
-  public void setTimbre(int timbre) {
-    this.timbre = timbre;
-  }
-
   /**
    * Gets this Tone's pitch.
    */
@@ -164,9 +125,4 @@ public class Tone {
         ", timbre=" + timbre +
         '}';
   }
-
-  @Override
-  public Tone clone() {
-    return new Tone(this.pitch.clone(), this.start, this.duration, this.volume, this.timbre);
-  }
-}
\ No newline at end of file
+}
@@ -0,0 +1,184 @@
+package musicEditor.music;
+
+import java.util.Arrays;
+
+/**
+ * Represents how densely the tones of one timbre of a composition fill each pitch, measure by
+ * measure, at several scales like the levels of a mip-map.
+ * <p>At level zero a bucket is a measure of {@link #MEASURE} beats, and each level's buckets are
+ * {@link #FAN_OUT} times as long as the level below. A bucket holds the number of beats of its
+ * pitch and span during which a tone is sounding, counting a tone of no duration as one beat,
+ * so a bucket is full when it holds as many beats as it is long.</p>
+ * <p>The buckets are brought up to date from snapshots of the composition. When the snapshot or
+ * timbre changes, only the tones that differ from the previous snapshot are added or taken away,
+ * and the beats they cover are remembered as changed until {@link #clearChanges()} is
+ * called.</p>
+ */
+public final class ToneDensity {
+  /**
+   * The number of beats in a bucket of level zero.
+   */
+  public static final int MEASURE = 4;
+  /**
+   * How many times as long the buckets of each level are as those of the level below.
+   */
+  public static final int FAN_OUT = 4;
+  /**
+   * The number of levels.
+   */
+  public static final int LEVELS = 8;
+
+  private static final int PITCHES = 128;
+
+  // buckets of each level in order of bucket, then pitch
+  private final int[][] buckets;
+  private CompositionSnapshot snapshot;
+  private int timbre;
+  private int changedFrom;
+  private int changedTo;
+  private boolean touched;
+
+  /**
+   * Constructs a ToneDensity of no tones.
+   */
+  public ToneDensity() {
+    this.buckets = new int[LEVELS][0];
+    this.snapshot = null;
+    this.timbre = 0;
+    this.clearChanges();
+  }
+
+  /**
+   * Brings the buckets up to date with the tones of the given timbre in the given snapshot.
+   * @param snapshot the snapshot of the composition
+   * @param timbre the timbre whose tones are counted
+   * @return true if any bucket changed
+   */
+  public boolean update(CompositionSnapshot snapshot, int timbre) {
+    if (snapshot == this.snapshot && timbre == this.timbre) {
+      return false;
+    }
+    // a tone of no duration at the last beat still takes up a beat
+    this.grow(snapshot.length() + 1);
+    this.touched = false;
+    if (this.snapshot == null || timbre != this.timbre) {
+      for (int[] level : this.buckets) {
+        Arrays.fill(level, 0);
+      }
+      snapshot.forEachToneBetween(timbre, 0, Integer.MAX_VALUE,
+          (t, midiPitch, start, duration, volume) -> this.add(midiPitch, start, duration, 1));
+      this.changedFrom = 0;
+      this.changedTo = Integer.MAX_VALUE;
+      this.touched = true;
+    }
+    else {
+      int current = this.timbre;
+      snapshot.forEachDifference(this.snapshot,
+          (t, midiPitch, start, duration, volume) -> {
+            if (t == current) {
+              this.add(midiPitch, start, duration, 1);
+            }
+          },
+          (t, midiPitch, start, duration, volume) -> {
+            if (t == current) {
+              this.add(midiPitch, start, duration, -1);
+            }
+          });
+    }
+    this.snapshot = snapshot;
+    this.timbre = timbre;
+    return this.touched;
+  }
+
+  /**
+   * Gets the first beat covered by a tone added or taken away since the changes were last
+   * cleared.
+   * @return the first changed beat
+   */
+  public int changedFrom() {
+    return this.changedFrom;
+  }
+
+  /**
+   * Gets the beat after the last beat covered by a tone added or taken away since the changes
+   * were last cleared, which is no greater than {@link #changedFrom()} if nothing changed.
+   * @return the beat after the last changed beat
+   */
+  public int changedTo() {
+    return this.changedTo;
+  }
+
+  /**
+   * Forgets which beats have changed.
+   */
+  public void clearChanges() {
+    this.changedFrom = Integer.MAX_VALUE;
+    this.changedTo = 0;
+  }
+
+  /**
+   * Gets the number of beats in a bucket of the given level.
+   * @param level the level
+   * @return the beats per bucket
+   */
+  public static int bucketBeats(int level) {
+    return MEASURE << (2 * level);
+  }
+
+  /**
+   * Gets the number of buckets each pitch has at the given level.
+   * @param level the level
+   * @return the number of buckets
+   */
+  public int bucketCount(int level) {
+    return this.buckets[level].length / PITCHES;
+  }
+
+  /**
+   * Gets the number of beats during which a tone of the given pitch is sounding within the given
+   * bucket of the given level. Buckets past the last are empty.
+   * @param level the level
+   * @param midiPitch the MIDI pitch
+   * @param bucket the index of the bucket
+   * @return the number of beats sounding
+   */
+  public int coverage(int level, int midiPitch, int bucket) {
+    int index = bucket * PITCHES + midiPitch;
+    int[] counts = this.buckets[level];
+    return bucket < 0 || index >= counts.length ? 0 : counts[index];
+  }
+
+  /**
+   * Makes every level long enough to hold a composition of the given length.
+   */
+  private void grow(int length) {
+    for (int level = 0; level < LEVELS; level++) {
+      int count = (int) (((long) length + bucketBeats(level) - 1) / bucketBeats(level));
+      if (count * PITCHES > this.buckets[level].length) {
+        // grows by at least half again so that a composition growing beat by beat is not copied
+        // at every beat
+        count = Math.max(count, this.bucketCount(level) * 3 / 2);
+        this.buckets[level] = Arrays.copyOf(this.buckets[level], count * PITCHES);
+      }
+    }
+  }
+
+  /**
+   * Adds the beats of the given tone to the buckets it covers at every level, or takes them away
+   * if the sign is negative.
+   */
+  private void add(int midiPitch, int start, int duration, int sign) {
+    int end = start + Math.max(duration, 1);
+    this.touched = true;
+    this.changedFrom = Math.min(this.changedFrom, start);
+    this.changedTo = Math.max(this.changedTo, end);
+    for (int level = 0; level < LEVELS; level++) {
+      int size = bucketBeats(level);
+      int[] counts = this.buckets[level];
+      for (int bucket = start / size; bucket <= (end - 1) / size; bucket++) {
+        int overlap = Math.min(end, (bucket + 1) * size) - Math.max(start, bucket * size);
+        counts[bucket * PITCHES + midiPitch] += sign * overlap;
+      }
+    }
+  }
+}
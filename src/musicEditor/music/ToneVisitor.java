@@ -0,0 +1,19 @@
+package musicEditor.music;
+
+/**
+ * A function object that is handed the fields of a Tone. Allows a composition to be read tone by
+ * tone without the caller needing to know how the composition stores its tones, and without
+ * creating a Tone object for every note visited.
+ */
+public interface ToneVisitor {
+
+  /**
+   * Visits a single tone.
+   * @param timbre the tone's timbre (MIDI instrument code between 1 and 128 inclusive)
+   * @param midiPitch the MIDI pitch representation of the tone's pitch
+   * @param start the beat at which the tone starts
+   * @param duration the number of beats the tone lasts
+   * @param volume the tone's volume
+   */
+  void visit(int timbre, int midiPitch, int start, int duration, int volume);
+}
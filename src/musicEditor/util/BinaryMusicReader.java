@@ -0,0 +1,167 @@
+package musicEditor.util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads compositions written in the binary music format described by {@link BinaryMusicWriter}.
+ * Files are memory mapped and decoded straight into a {@link NoteBuffer}, which is handed to the
+ * builder all at once, so there is no text to split into words.
+ */
+public class BinaryMusicReader {
+  /**
+   * Returns true if the file at the given path starts like a binary music file.
+   * @param path the file to check
+   * @throws IOException if the file cannot be read
+   */
+  public static boolean isBinary(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer start = ByteBuffer.allocate(BinaryMusicWriter.MAGIC.length);
+      while (start.hasRemaining() && channel.read(start) >= 0) {
+        // keep reading until the magic bytes are in or the file runs out
+      }
+      start.flip();
+      return hasMagic(start);
+    }
+  }
+
+  /**
+   * A factory for producing new music compositions, given the path of a binary music file and a
+   * builder for constructing compositions.
+   * @param path The binary music file
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return The main model interface type
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not a binary music file of a known version
+   */
+  public static <T> T parseFile(Path path, CompositionBuilder<T> piece) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), piece);
+    }
+  }
+
+  /**
+   * A factory for producing new music compositions, given the bytes of a binary music file
+   * between the position and limit of the given buffer and a builder for constructing
+   * compositions. The buffer's position is moved past the bytes read.
+   * @param bytes The binary music data
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return The main model interface type
+   * @throws IllegalArgumentException if the bytes are not a binary music file of a known version
+   */
+  public static <T> T parse(ByteBuffer bytes, CompositionBuilder<T> piece) {
+    if (!hasMagic(bytes)) {
+      throw new IllegalArgumentException("not a binary music file");
+    }
+    try {
+      bytes.position(bytes.position() + BinaryMusicWriter.MAGIC.length);
+      int version = bytes.get() & 0xFF;
+      if (version < BinaryMusicWriter.FIRST_VERSION || version > BinaryMusicWriter.VERSION) {
+        throw new IllegalArgumentException("unsupported binary music version: " + version);
+      }
+      piece.setTempo(readInt(bytes));
+
+      int features = readInt(bytes);
+      int beat = 0;
+      for (int i = 0; i < features; i++) {
+        int kind = bytes.get() & 0xFF;
+        if (kind != BinaryMusicWriter.REPETITION && (kind != BinaryMusicWriter.VARIED_REPETITION
+            || version == BinaryMusicWriter.FIRST_VERSION)) {
+          throw new IllegalArgumentException("unknown feature kind: " + kind);
+        }
+        beat += readInt(bytes);
+        int rewind = readInt(bytes);
+        int loops = readInt(bytes);
+        if (kind == BinaryMusicWriter.VARIED_REPETITION) {
+          piece.addRepetition(beat, rewind, loops, readInt(bytes));
+        }
+        else {
+          piece.addRepetition(beat, rewind, loops);
+        }
+      }
+
+      // every note takes at least three bytes, which bounds what a damaged count can allocate
+      NoteBuffer notes = new NoteBuffer(Math.min(readCount(bytes), bytes.remaining() / 3));
+      int rows = readCount(bytes);
+      int[] starts = new int[0];
+      int[] ends = new int[0];
+      for (int row = 0; row < rows; row++) {
+        int timbre = (bytes.get() & 0xFF) + 1;
+        int midiPitch = bytes.get() & 0xFF;
+        int size = readCount(bytes);
+        if (size > bytes.remaining() / 3) {
+          throw new BufferUnderflowException();
+        }
+        if (size > starts.length) {
+          starts = new int[size];
+          ends = new int[size];
+        }
+        // the first column holds the gaps, which become starts once the durations are known
+        for (int i = 0; i < size; i++) {
+          starts[i] = readInt(bytes);
+        }
+        int previousEnd = 0;
+        for (int i = 0; i < size; i++) {
+          starts[i] += previousEnd;
+          ends[i] = starts[i] + readInt(bytes);
+          previousEnd = ends[i];
+        }
+        for (int i = 0; i < size; i++) {
+          notes.add(starts[i], ends[i], timbre, midiPitch, readInt(bytes));
+        }
+      }
+      piece.addNotes(notes);
+      return piece.build();
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("binary music file is truncated");
+    }
+  }
+
+  /**
+   * Returns true if the given buffer starts with the magic bytes of the format. Does not move
+   * the buffer's position.
+   */
+  private static boolean hasMagic(ByteBuffer bytes) {
+    if (bytes.remaining() < BinaryMusicWriter.MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < BinaryMusicWriter.MAGIC.length; i++) {
+      if (bytes.get(bytes.position() + i) != BinaryMusicWriter.MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads an unsigned variable length integer that counts something, so cannot be negative.
+   */
+  private static int readCount(ByteBuffer bytes) {
+    int count = readInt(bytes);
+    if (count < 0) {
+      throw new IllegalArgumentException("bad count in binary music file: " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Reads an unsigned variable length integer of at most five bytes.
+   */
+  private static int readInt(ByteBuffer bytes) {
+    int result = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = bytes.get();
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IllegalArgumentException("malformed number in binary music file");
+  }
+}
@@ -0,0 +1,152 @@
+package musicEditor.util;
+
+import musicEditor.music.Feature;
+import musicEditor.music.MusicComposition;
+import musicEditor.music.Repetition;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Writes compositions in the binary music format read by {@link BinaryMusicReader}.
+ *
+ * <p>
+ *   A file holds, in order:
+ *   <ul>
+ *     <li>the four ASCII bytes "MEDB" followed by a version byte, which is 2, or 1 for files
+ *      written before repetitions could have varied endings</li>
+ *     <li>the tempo in microseconds per beat</li>
+ *     <li>the number of features, then for each repetition a kind byte of 1 followed by its
+ *      beat as the distance from the previous feature's beat, its rewind and its loops, or for a
+ *      repetition with a varied ending a kind byte of 2 followed by the same and its ending</li>
+ *     <li>the total number of notes and the number of rows</li>
+ *     <li>each row in order of timbre and then pitch: a byte holding the timbre less one, a byte
+ *      holding the pitch, the number of notes in the row, and then three columns covering every
+ *      note of the row in order of start. The first column holds the beats between the end of
+ *      the previous note, or beat zero, and the start of the note; the second the durations; the
+ *      third the volumes.</li>
+ *   </ul>
+ *   Every number other than the single bytes is written as an unsigned variable length integer
+ *   of seven bits per byte, least significant group first. Since the notes of a row never
+ *   overlap, the gaps between them and their durations are small, and most notes take three
+ *   bytes.
+ * </p>
+ */
+public class BinaryMusicWriter {
+  static final byte[] MAGIC = "MEDB".getBytes(StandardCharsets.US_ASCII);
+  static final int VERSION = 2;
+  // the first version had no repetitions with varied endings
+  static final int FIRST_VERSION = 1;
+  static final int REPETITION = 1;
+  static final int VARIED_REPETITION = 2;
+
+  /**
+   * Writes the given composition and tempo to the file at the given path, replacing the file if
+   * it exists.
+   * @param composition the composition to write
+   * @param tempo the tempo in microseconds per beat
+   * @param path the file to write to
+   * @throws IOException if the file cannot be written
+   * @throws IllegalArgumentException if the composition has a feature other than a repetition
+   */
+  public static void write(MusicComposition composition, int tempo, Path path)
+      throws IOException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+      write(composition, tempo, out);
+    }
+  }
+
+  /**
+   * Writes the given composition and tempo to the given stream, which is left open. The tones
+   * written are those of the composition's latest snapshot.
+   * @param composition the composition to write
+   * @param tempo the tempo in microseconds per beat
+   * @param out the stream to write to
+   * @throws IOException if the stream cannot be written to
+   * @throws IllegalArgumentException if the composition has a feature other than a repetition
+   */
+  public static void write(MusicComposition composition, int tempo, OutputStream out)
+      throws IOException {
+    // the tones come out sorted by timbre, then pitch, then start, which is the order of the file
+    NoteBuffer notes = new NoteBuffer();
+    composition.snapshot().forEachTone((timbre, midiPitch, start, duration, volume) ->
+        notes.add(start, start + duration, timbre, midiPitch, volume));
+
+    out.write(MAGIC);
+    out.write(VERSION);
+    writeInt(out, tempo);
+
+    Map<Integer, Feature> features = composition.getFeatures();
+    writeInt(out, features.size());
+    int previousBeat = 0;
+    for (Map.Entry<Integer, Feature> entry : features.entrySet()) {
+      if (!(entry.getValue() instanceof Repetition)) {
+        throw new IllegalArgumentException("cannot write feature at beat " + entry.getKey());
+      }
+      Repetition repetition = (Repetition) entry.getValue();
+      out.write(repetition.getEnding() == 0 ? REPETITION : VARIED_REPETITION);
+      writeInt(out, entry.getKey() - previousBeat);
+      writeInt(out, repetition.getRewind());
+      writeInt(out, repetition.getLoops());
+      if (repetition.getEnding() != 0) {
+        writeInt(out, repetition.getEnding());
+      }
+      previousBeat = entry.getKey();
+    }
+
+    writeInt(out, notes.size());
+    int rows = 0;
+    for (int i = 0; i < notes.size(); i = rowEnd(notes, i)) {
+      rows++;
+    }
+    writeInt(out, rows);
+    for (int from = 0; from < notes.size(); ) {
+      int to = rowEnd(notes, from);
+      out.write(notes.getTimbre(from) - 1);
+      out.write(notes.getPitch(from));
+      writeInt(out, to - from);
+      int previousEnd = 0;
+      for (int i = from; i < to; i++) {
+        writeInt(out, notes.getStart(i) - previousEnd);
+        previousEnd = notes.getEnd(i);
+      }
+      for (int i = from; i < to; i++) {
+        writeInt(out, notes.getEnd(i) - notes.getStart(i));
+      }
+      for (int i = from; i < to; i++) {
+        writeInt(out, notes.getVolume(i));
+      }
+      from = to;
+    }
+  }
+
+  /**
+   * Returns the index just past the row of notes of the same timbre and pitch that starts at the
+   * given index.
+   */
+  private static int rowEnd(NoteBuffer notes, int from) {
+    int timbre = notes.getTimbre(from);
+    int midiPitch = notes.getPitch(from);
+    int to = from + 1;
+    while (to < notes.size() && notes.getTimbre(to) == timbre && notes.getPitch(to) == midiPitch) {
+      to++;
+    }
+    return to;
+  }
+
+  /**
+   * Writes the given int as an unsigned variable length integer.
+   */
+  private static void writeInt(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+}
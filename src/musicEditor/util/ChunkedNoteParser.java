@@ -0,0 +1,136 @@
+package musicEditor.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Parses the bytes of a whole music file by splitting them into chunks that each end at a
+ * newline and parsing the chunks in parallel on the common fork-join pool. Each chunk collects
+ * its own notes and tempos, which are then combined in file order, so the result is the same as
+ * parsing the file from start to end. Each chunk counts its lines from one, and the line of each
+ * note is moved down by the lines of the chunks before it as the notes are combined.
+ * <p>If any chunk cannot be parsed on its own, the whole file is parsed again from the start on
+ * the calling thread. This keeps the error reported for a malformed file the same as that of a
+ * sequential parse, and still accepts a line that was split over a chunk boundary.</p>
+ */
+final class ChunkedNoteParser {
+  private static final int MINIMUM_CHUNK = 1 << 18;
+
+  private final ByteBuffer bytes;
+  private final Chunk[] chunks;
+
+  /**
+   * Constructs a ChunkedNoteParser for the bytes between the position and limit of the given
+   * buffer.
+   * @param bytes the whole contents of a music file
+   */
+  ChunkedNoteParser(ByteBuffer bytes) {
+    this.bytes = bytes;
+    int chunkCount = ForkJoinPool.getCommonPoolParallelism() * 4;
+    int chunkSize = Math.max(MINIMUM_CHUNK, bytes.remaining() / chunkCount);
+    List<Chunk> chunks = new ArrayList<>();
+    int start = bytes.position();
+    while (start < bytes.limit()) {
+      int end = this.nextLineStart(Math.min(start + chunkSize, bytes.limit()));
+      chunks.add(new Chunk(start, end));
+      start = end;
+    }
+    this.chunks = chunks.toArray(new Chunk[chunks.size()]);
+  }
+
+  /**
+   * Parses every chunk, giving the tempos read to the given consumer in file order and adding
+   * the notes read to the given buffer in file order. If a line is malformed, the buffer is left
+   * holding the notes of the lines before it.
+   * @param tempos the consumer given each tempo
+   * @param notes the buffer the notes of the file are added to
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  void parse(IntConsumer tempos, NoteBuffer notes) {
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (Chunk chunk : this.chunks) {
+      tasks.add(ForkJoinTask.adapt(chunk::parse));
+    }
+    ForkJoinTask.invokeAll(tasks);
+    for (Chunk chunk : this.chunks) {
+      if (chunk.failed) {
+        this.parseSequentially(tempos, notes);
+        return;
+      }
+    }
+    int lines = 0;
+    for (Chunk chunk : this.chunks) {
+      for (int tempo : chunk.tempos) {
+        tempos.accept(tempo);
+      }
+      notes.addAll(chunk.notes, lines);
+      lines += chunk.lines;
+    }
+  }
+
+  /**
+   * Parses the whole file on the calling thread.
+   */
+  private void parseSequentially(IntConsumer tempos, NoteBuffer notes) {
+    try {
+      MusicReader.parse(new NoteTokenizer(this.bytes.duplicate(), 1), tempos, notes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the index just after the first newline at or after the given index, or the limit of
+   * the bytes if there is none.
+   */
+  private int nextLineStart(int index) {
+    while (index < this.bytes.limit() && this.bytes.get(index - 1) != '\n') {
+      index++;
+    }
+    return index;
+  }
+
+  /**
+   * A range of the bytes of the file and what was read from it.
+   */
+  private final class Chunk {
+    private final int start;
+    private final int end;
+    private final NoteBuffer notes;
+    private final List<Integer> tempos;
+    private int lines;
+    private boolean failed;
+
+    private Chunk(int start, int end) {
+      this.start = start;
+      this.end = end;
+      this.notes = new NoteBuffer();
+      this.tempos = new ArrayList<>();
+      this.lines = 0;
+      this.failed = false;
+    }
+
+    /**
+     * Parses this chunk on its own, recording how many lines it ends and whether it failed
+     * rather than throwing.
+     */
+    private void parse() {
+      ByteBuffer slice = ChunkedNoteParser.this.bytes.duplicate();
+      slice.limit(this.end);
+      slice.position(this.start);
+      NoteTokenizer tokens = new NoteTokenizer(slice, 1);
+      try {
+        MusicReader.parse(tokens, this.tempos::add, this.notes);
+        this.lines = tokens.getLine() - 1;
+      } catch (IOException | IllegalArgumentException e) {
+        this.failed = true;
+      }
+    }
+  }
+}
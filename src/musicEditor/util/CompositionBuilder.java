@@ -32,4 +32,44 @@ public interface CompositionBuilder<T> {
    * @return This builder
    */
   CompositionBuilder<T> addNote(int start, int end, int timbre, int midiPitch, int volume);
+
+  /**
+   * Adds a repetition to the piece. Builders of pieces without repetitions may ignore it, which
+   * is what the default does.
+   * @param beat The beat the repetition occurs at
+   * @param rewind How many beats back the repetition sends the music
+   * @param loops How many times the repetition is made, or zero for the default of once
+   * @return This builder
+   */
+  default CompositionBuilder<T> addRepetition(int beat, int rewind, int loops) {
+    return this;
+  }
+
+  /**
+   * Adds a repetition with a varied ending to the piece. By default the ending is dropped and the
+   * repetition is added through {@link #addRepetition(int, int, int)}.
+   * @param beat The beat the repetition occurs at
+   * @param rewind How many beats back the repetition sends the music
+   * @param loops How many times the repetition is made, or zero for the default of once
+   * @param ending How many beats before the repetition are skipped on the last pass
+   * @return This builder
+   */
+  default CompositionBuilder<T> addRepetition(int beat, int rewind, int loops, int ending) {
+    return this.addRepetition(beat, rewind, loops);
+  }
+
+  /**
+   * Adds every note in the given buffer to the piece. By default the notes are added one at a
+   * time through {@link #addNote(int, int, int, int, int)}; builders that can take many notes at
+   * once should override this. The buffer may be reordered.
+   * @param notes The notes to add
+   * @return This builder
+   */
+  default CompositionBuilder<T> addNotes(NoteBuffer notes) {
+    for (int i = 0; i < notes.size(); i++) {
+      this.addNote(notes.getStart(i), notes.getEnd(i), notes.getTimbre(i),
+          notes.getPitch(i), notes.getVolume(i));
+    }
+    return this;
+  }
 }
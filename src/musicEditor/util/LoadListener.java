@@ -0,0 +1,31 @@
+package musicEditor.util;
+
+/**
+ * Listens to a {@link MusicLoader} as it loads a music file. Every method is called on the
+ * loading thread, so listeners that touch the GUI must pass the work on to the event dispatch
+ * thread themselves.
+ */
+public interface LoadListener {
+  /**
+   * Called after each batch of notes has been added to the builder.
+   * @param notes the number of notes added so far
+   * @param progress the fraction of the file read so far, from 0 to 1
+   * @param fromBeat the first beat a note of the batch sounds on
+   * @param toBeat the beat after the last beat a note of the batch sounds on, which is no more
+   *     than {@code fromBeat} if the batch is empty
+   */
+  void loadProgress(int notes, double progress, int fromBeat, int toBeat);
+
+  /**
+   * Called once after every note of the file has been added to the builder.
+   * @param notes the number of notes added
+   */
+  void loadComplete(int notes);
+
+  /**
+   * Called if loading stops early because the file cannot be read or holds bad data. Notes from
+   * earlier batches stay in the builder.
+   * @param e the reason loading stopped
+   */
+  void loadFailed(Exception e);
+}
@@ -0,0 +1,323 @@
+package musicEditor.util;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A helper to read Standard MIDI Files of type 0 or 1 and construct a music composition from them.
+ *
+ * <p>
+ *   The events of every track are read together in order of tick, merged by a binary heap that
+ *   holds the next event of each track, with events of the same tick taken in order of track. A
+ *   note starts with a note on event and ends with the next note off, or note on of zero velocity,
+ *   of the same channel and pitch. A note on of a pitch that is already sounding on the same
+ *   channel ends the earlier note first.
+ * </p>
+ * <p>
+ *   The timbre of a note is one more than the program of its channel when it starts, so program
+ *   zero, the default, becomes timbre 1. Ticks are rounded to the nearest beat, with a given number
+ *   of beats to a quarter note, and every note lasts at least one beat. Notes that would overlap in
+ *   the same timbre and pitch, such as those from different channels playing the same instrument,
+ *   are resolved as they start: a note still sounding in the timbre and pitch is ended where the
+ *   new one starts, and a note that starts on the same beat as the last one started in the timbre
+ *   and pitch is dropped. The tempo is taken from the first tempo event; since a composition has
+ *   only one tempo, later changes are ignored.
+ * </p>
+ * <p>
+ *   The sounding note of each channel and pitch, and the last note started in each timbre and
+ *   pitch, are kept in fixed tables, so each event is handled in constant time once the heap has
+ *   given it, which takes time logarithmic in the number of tracks. Notes are given to the builder
+ *   in batches of {@link #BATCH_SIZE} as they end, so no more than one batch of ended notes is
+ *   held at a time, however long the file.
+ * </p>
+ */
+public class MidiReader {
+  /**
+   * The number of beats in a quarter note unless another number is given, which allows notes as
+   * short as a sixteenth.
+   */
+  public static final int DEFAULT_BEATS_PER_QUARTER = 4;
+
+  /**
+   * The number of ended notes given to the builder at a time.
+   */
+  public static final int BATCH_SIZE = 4096;
+
+  private static final int TEMPO = 0x51;
+  private static final int DEFAULT_MICROSECONDS_PER_QUARTER = 500000;
+
+  /**
+   * A factory for producing new music compositions, given the path of a MIDI file and a builder
+   * for constructing compositions. Uses {@link #DEFAULT_BEATS_PER_QUARTER} beats per quarter note.
+   * @param path The MIDI file
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return The main model interface type
+   * @throws IOException if the file cannot be read
+   * @throws InvalidMidiDataException if the file is not a valid MIDI file
+   */
+  public static <T> T parseFile(Path path, CompositionBuilder<T> piece)
+      throws IOException, InvalidMidiDataException {
+    return parseFile(path, DEFAULT_BEATS_PER_QUARTER, piece);
+  }
+
+  /**
+   * A factory for producing new music compositions, given the path of a MIDI file, the number
+   * of beats in a quarter note, and a builder for constructing compositions.
+   * @param path The MIDI file
+   * @param beatsPerQuarter The number of beats in a quarter note
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return The main model interface type
+   * @throws IOException if the file cannot be read
+   * @throws InvalidMidiDataException if the file is not a valid MIDI file
+   * @throws IllegalArgumentException if beatsPerQuarter is not positive or the file does not
+   *     measure time in ticks per quarter note
+   */
+  public static <T> T parseFile(Path path, int beatsPerQuarter, CompositionBuilder<T> piece)
+      throws IOException, InvalidMidiDataException {
+    return parse(MidiSystem.getSequence(path.toFile()), beatsPerQuarter, piece);
+  }
+
+  /**
+   * A factory for producing new music compositions, given a MIDI sequence, the number of beats
+   * in a quarter note, and a builder for constructing compositions.
+   * @param sequence The MIDI sequence
+   * @param beatsPerQuarter The number of beats in a quarter note
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return The main model interface type
+   * @throws IllegalArgumentException if beatsPerQuarter is not positive or the sequence does not
+   *     measure time in ticks per quarter note
+   */
+  public static <T> T parse(Sequence sequence, int beatsPerQuarter, CompositionBuilder<T> piece) {
+    if (beatsPerQuarter <= 0) {
+      throw new IllegalArgumentException("beatsPerQuarter must be positive");
+    }
+    if (sequence.getDivisionType() != Sequence.PPQ) {
+      throw new IllegalArgumentException("only MIDI files timed in ticks per quarter note "
+          + "can be read");
+    }
+    Notes notes = new Notes(piece, sequence.getResolution(), beatsPerQuarter);
+    TrackHeads heads = new TrackHeads(sequence.getTracks());
+    int[] programs = new int[16];
+    boolean tempoSet = false;
+    long lastTick = 0;
+    while (!heads.isEmpty()) {
+      MidiEvent event = heads.pop();
+      long tick = event.getTick();
+      lastTick = Math.max(lastTick, tick);
+      MidiMessage message = event.getMessage();
+
+      if (message instanceof ShortMessage) {
+        ShortMessage shortMessage = (ShortMessage) message;
+        int channel = shortMessage.getChannel();
+        int key = channel * 128 + shortMessage.getData1();
+        int command = shortMessage.getCommand();
+        if (command == ShortMessage.PROGRAM_CHANGE) {
+          programs[channel] = shortMessage.getData1();
+        }
+        else if (command == ShortMessage.NOTE_ON && shortMessage.getData2() > 0) {
+          notes.start(key, programs[channel] + 1, shortMessage.getData2(), tick);
+        }
+        else if (command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF) {
+          notes.end(key, tick);
+        }
+      }
+      else if (message instanceof MetaMessage && !tempoSet
+          && ((MetaMessage) message).getType() == TEMPO) {
+        byte[] data = ((MetaMessage) message).getData();
+        if (data.length == 3) {
+          int microsecondsPerQuarter =
+              ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+          piece.setTempo(microsecondsPerQuarter / beatsPerQuarter);
+          tempoSet = true;
+        }
+      }
+    }
+    // notes still sounding at the end of the file end with it
+    notes.endAll(lastTick);
+    if (!tempoSet) {
+      piece.setTempo(DEFAULT_MICROSECONDS_PER_QUARTER / beatsPerQuarter);
+    }
+    return piece.build();
+  }
+
+  /**
+   * Returns the beat nearest to the given tick.
+   */
+  private static int toBeat(long tick, int resolution, int beatsPerQuarter) {
+    return (int) ((tick * beatsPerQuarter + resolution / 2) / resolution);
+  }
+
+  /**
+   * The next event of each track, kept in a binary heap. Each is packed into a long as its tick
+   * and then the index of its track, so the earliest event comes first and events of the same
+   * tick come in order of track.
+   */
+  private static final class TrackHeads {
+    private final Track[] tracks;
+    private final int[] next;
+    private final long[] heap;
+    private final int trackBits;
+    private int size;
+
+    private TrackHeads(Track[] tracks) {
+      this.tracks = tracks;
+      this.next = new int[tracks.length];
+      this.heap = new long[tracks.length];
+      this.trackBits = 32 - Integer.numberOfLeadingZeros(tracks.length);
+      this.size = 0;
+      for (int track = 0; track < tracks.length; track++) {
+        this.push(track);
+      }
+    }
+
+    /**
+     * Returns true if every event of every track has been taken.
+     */
+    private boolean isEmpty() {
+      return this.size == 0;
+    }
+
+    /**
+     * Takes the earliest event and puts the event after it in its track in the heap.
+     */
+    private MidiEvent pop() {
+      int track = (int) (this.heap[0] & ((1L << this.trackBits) - 1));
+      this.size--;
+      long last = this.heap[this.size];
+      int i = 0;
+      while (2 * i + 1 < this.size) {
+        int child = 2 * i + 1;
+        if (child + 1 < this.size && this.heap[child + 1] < this.heap[child]) {
+          child++;
+        }
+        if (this.heap[child] >= last) {
+          break;
+        }
+        this.heap[i] = this.heap[child];
+        i = child;
+      }
+      this.heap[i] = last;
+      MidiEvent event = this.tracks[track].get(this.next[track]++);
+      this.push(track);
+      return event;
+    }
+
+    /**
+     * Adds the next event of the given track to the heap, if the track has one.
+     */
+    private void push(int track) {
+      if (this.next[track] == this.tracks[track].size()) {
+        return;
+      }
+      long head = this.tracks[track].get(this.next[track]).getTick() << this.trackBits | track;
+      int i = this.size;
+      while (i > 0 && this.heap[(i - 1) / 2] > head) {
+        this.heap[i] = this.heap[(i - 1) / 2];
+        i = (i - 1) / 2;
+      }
+      this.heap[i] = head;
+      this.size++;
+    }
+  }
+
+  /**
+   * The notes that are sounding and the ended notes waiting to be given to a builder.
+   */
+  private static final class Notes {
+    private final CompositionBuilder<?> piece;
+    private final int resolution;
+    private final int beatsPerQuarter;
+    // the sounding note of each channel and pitch, indexed by channel * 128 + pitch, where a
+    // start tick of -1 means none is sounding
+    private final long[] onTicks;
+    private final int[] onVolumes;
+    private final int[] onTimbres;
+    // the start beat of the last note started in each timbre and pitch, and the channel and pitch
+    // key of the note sounding in it or -1, indexed by (timbre - 1) * 128 + pitch
+    private final int[] lastStarts;
+    private final int[] soundingKeys;
+    private final NoteBuffer ended;
+
+    private Notes(CompositionBuilder<?> piece, int resolution, int beatsPerQuarter) {
+      this.piece = piece;
+      this.resolution = resolution;
+      this.beatsPerQuarter = beatsPerQuarter;
+      this.onTicks = new long[16 * 128];
+      this.onVolumes = new int[16 * 128];
+      this.onTimbres = new int[16 * 128];
+      this.lastStarts = new int[128 * 128];
+      this.soundingKeys = new int[128 * 128];
+      this.ended = new NoteBuffer(BATCH_SIZE);
+      Arrays.fill(this.onTicks, -1);
+      Arrays.fill(this.lastStarts, -1);
+      Arrays.fill(this.soundingKeys, -1);
+    }
+
+    /**
+     * Starts a note of the given channel and pitch key at the given tick, ending whatever note of
+     * the same key or of the same timbre and pitch is sounding. The note is dropped if another of
+     * the same timbre and pitch started on the same beat.
+     */
+    private void start(int key, int timbre, int volume, long tick) {
+      this.end(key, tick);
+      int row = (timbre - 1) * 128 + key % 128;
+      int beat = toBeat(tick, this.resolution, this.beatsPerQuarter);
+      if (this.lastStarts[row] == beat) {
+        return;
+      }
+      if (this.soundingKeys[row] != -1) {
+        this.end(this.soundingKeys[row], tick);
+      }
+      this.lastStarts[row] = beat;
+      this.soundingKeys[row] = key;
+      this.onTicks[key] = tick;
+      this.onVolumes[key] = volume;
+      this.onTimbres[key] = timbre;
+    }
+
+    /**
+     * Ends the sounding note of the given channel and pitch key, if any, at the given tick, giving
+     * the ended notes to the builder once there is a batch of them.
+     */
+    private void end(int key, long tick) {
+      if (this.onTicks[key] == -1) {
+        return;
+      }
+      int start = toBeat(this.onTicks[key], this.resolution, this.beatsPerQuarter);
+      int end = Math.max(toBeat(tick, this.resolution, this.beatsPerQuarter), start + 1);
+      int timbre = this.onTimbres[key];
+      this.ended.add(start, end, timbre, key % 128, this.onVolumes[key]);
+      this.onTicks[key] = -1;
+      this.soundingKeys[(timbre - 1) * 128 + key % 128] = -1;
+      if (this.ended.size() == BATCH_SIZE) {
+        this.piece.addNotes(this.ended);
+        this.ended.clear();
+      }
+    }
+
+    /**
+     * Ends every sounding note at the given tick and gives the builder the notes that are left.
+     */
+    private void endAll(long tick) {
+      for (int key = 0; key < this.onTicks.length; key++) {
+        this.end(key, tick);
+      }
+      if (!this.ended.isEmpty()) {
+        this.piece.addNotes(this.ended);
+        this.ended.clear();
+      }
+    }
+  }
+}
@@ -0,0 +1,315 @@
+package musicEditor.util;
+
+import musicEditor.music.ChannelMap;
+import musicEditor.music.CompositionSnapshot;
+import musicEditor.music.MusicComposition;
+import musicEditor.music.RowEvents;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes compositions as type 1 Standard MIDI Files that can be read back by {@link MidiReader}.
+ *
+ * <p>
+ *   The first track holds the tempo and every following track holds the tones of one channel.
+ *   Timbres are given channels by a {@link ChannelMap}, so each of the first fifteen has a channel
+ *   and a track of its own, with a program change to its instrument at the start. Any further
+ *   timbres share channels, and their tones are written in the track of their channel with a
+ *   program change before each note on whose timbre is not the channel's current instrument, so
+ *   {@link MidiReader} gives every note the timbre it was written with. Tones of timbres sharing
+ *   a channel that sound the same pitch at once cannot be told apart on the channel, so the
+ *   earlier is written as ending where the later starts. Ticks are beats, with a given number of
+ *   beats to a quarter note. Volumes above 127 are written as 127, and a volume of zero as one,
+ *   since a note on of zero velocity would be read as a note off.
+ * </p>
+ * <p>
+ *   The events of a track are produced in order of tick by merging the rows of its timbres, so
+ *   no Sequence is ever built. Only the position reached in each row and a small output buffer
+ *   are kept, and the length of each track is filled in once the track has been written.
+ * </p>
+ */
+public class MidiWriter {
+  private static final int MAX_TEMPO = 0xFFFFFF;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private int trackLength;
+  private int runningStatus;
+
+  /**
+   * Constructs a MidiWriter that writes to the given channel.
+   */
+  private MidiWriter(FileChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  }
+
+  /**
+   * Writes the given composition and tempo to the MIDI file at the given path, replacing the file
+   * if it exists. Uses {@link MidiReader#DEFAULT_BEATS_PER_QUARTER} beats per quarter note.
+   * @param composition the composition to write
+   * @param tempo the tempo in microseconds per beat
+   * @param path the file to write to
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(MusicComposition composition, int tempo, Path path)
+      throws IOException {
+    write(composition, tempo, MidiReader.DEFAULT_BEATS_PER_QUARTER, path);
+  }
+
+  /**
+   * Writes the given composition and tempo to the MIDI file at the given path, replacing the file
+   * if it exists. The tones written are those of the composition's latest snapshot.
+   * @param composition the composition to write
+   * @param tempo the tempo in microseconds per beat
+   * @param beatsPerQuarter the number of beats in a quarter note
+   * @param path the file to write to
+   * @throws IOException if the file cannot be written
+   * @throws IllegalArgumentException if beatsPerQuarter is not between 1 and 32767
+   */
+  public static void write(MusicComposition composition, int tempo, int beatsPerQuarter,
+                           Path path) throws IOException {
+    if (beatsPerQuarter < 1 || beatsPerQuarter > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("beatsPerQuarter must be between 1 and 32767");
+    }
+    CompositionSnapshot snapshot = composition.snapshot();
+    ChannelMap channels = new ChannelMap();
+    // whether each timbre plays on each channel, indexed by channel and then timbre
+    boolean[][] timbres = new boolean[16][129];
+    boolean[] used = new boolean[16];
+    int tracks = 1;
+    for (int timbre = 1; timbre <= 128; timbre++) {
+      if (!snapshot.range(timbre).isEmpty()) {
+        int midiChannel = channels.channelOf(timbre);
+        timbres[midiChannel][timbre] = true;
+        if (!used[midiChannel]) {
+          used[midiChannel] = true;
+          tracks++;
+        }
+      }
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      MidiWriter writer = new MidiWriter(channel);
+      writer.writeHeader(tracks, beatsPerQuarter);
+      writer.writeTempoTrack(
+          (int) Math.min(Math.max((long) tempo * beatsPerQuarter, 1), MAX_TEMPO));
+      RowEvents events = new RowEvents();
+      for (int midiChannel = 0; midiChannel < 16; midiChannel++) {
+        if (used[midiChannel]) {
+          writer.writeChannelTrack(snapshot, timbres[midiChannel], midiChannel, events);
+        }
+      }
+      writer.flush();
+    }
+  }
+
+  /**
+   * Writes the header chunk.
+   */
+  private void writeHeader(int tracks, int beatsPerQuarter) throws IOException {
+    this.writeAscii("MThd");
+    this.writeInt32(6);
+    this.writeInt16(1);
+    this.writeInt16(tracks);
+    this.writeInt16(beatsPerQuarter);
+  }
+
+  /**
+   * Writes the track holding the tempo in microseconds per quarter note.
+   */
+  private void writeTempoTrack(int microsecondsPerQuarter) throws IOException {
+    long start = this.startTrack();
+    this.writeDelta(0);
+    this.writeByte(0xFF);
+    this.writeByte(0x51);
+    this.writeByte(3);
+    this.writeByte(microsecondsPerQuarter >>> 16);
+    this.writeByte(microsecondsPerQuarter >>> 8);
+    this.writeByte(microsecondsPerQuarter);
+    this.endTrack(start);
+  }
+
+  /**
+   * Writes the track holding every tone of the given timbres on the given channel. The rows of
+   * the timbres are merged in order of tick by the given {@link RowEvents}, which puts a note off
+   * before a note on at the same tick, so a tone that ends where the next one of its pitch starts
+   * is released before it is struck again. When the channel is shared, a program change comes
+   * before a note on of a timbre other than the last one played, and a tone still sounding on the
+   * pitch of a note on is ended there, its own note off then being left out.
+   */
+  private void writeChannelTrack(CompositionSnapshot snapshot, boolean[] timbres,
+                                 int midiChannel, RowEvents events) throws IOException {
+    long start = this.startTrack();
+    events.reset(snapshot);
+    int program = -1;
+    for (int timbre = 1; timbre <= 128; timbre++) {
+      if (timbres[timbre]) {
+        if (program == -1) {
+          program = timbre;
+        }
+        for (int midiPitch = 0; midiPitch < 128; midiPitch++) {
+          events.startRow(timbre, midiPitch, 0);
+        }
+      }
+    }
+    this.writeDelta(0);
+    this.writeStatus(0xC0 | midiChannel);
+    this.writeByte(program - 1);
+
+    // the timbre of the tone sounding on each pitch of the channel, or 0 if there is none
+    int[] sounding = new int[128];
+    long tick = 0;
+    while (!events.isEmpty()) {
+      long event = events.pop();
+      int timbre = RowEvents.timbre(event);
+      int midiPitch = RowEvents.midiPitch(event);
+      long eventTick = RowEvents.beat(event);
+      if (RowEvents.isNoteOn(event)) {
+        if (sounding[midiPitch] != 0) {
+          this.writeDelta(eventTick - tick);
+          tick = eventTick;
+          this.writeNoteOff(midiChannel, midiPitch);
+        }
+        if (timbre != program) {
+          this.writeDelta(eventTick - tick);
+          tick = eventTick;
+          this.writeStatus(0xC0 | midiChannel);
+          this.writeByte(timbre - 1);
+          program = timbre;
+        }
+        this.writeDelta(eventTick - tick);
+        tick = eventTick;
+        this.writeStatus(0x90 | midiChannel);
+        this.writeByte(midiPitch);
+        this.writeByte(Math.min(Math.max(events.volumeOf(event), 1), 127));
+        sounding[midiPitch] = timbre;
+      }
+      else if (sounding[midiPitch] == timbre) {
+        this.writeDelta(eventTick - tick);
+        tick = eventTick;
+        this.writeNoteOff(midiChannel, midiPitch);
+        sounding[midiPitch] = 0;
+      }
+    }
+    this.endTrack(start);
+  }
+
+  /**
+   * Writes a note off of the given pitch on the given channel.
+   */
+  private void writeNoteOff(int midiChannel, int midiPitch) throws IOException {
+    this.writeStatus(0x80 | midiChannel);
+    this.writeByte(midiPitch);
+    this.writeByte(0);
+  }
+
+  /**
+   * Writes the start of a track chunk with a length to be filled in by
+   * {@link #endTrack(long)}, and returns the position of the chunk in the file.
+   */
+  private long startTrack() throws IOException {
+    this.flush();
+    long start = this.channel.position();
+    this.trackLength = 0;
+    this.runningStatus = -1;
+    this.writeAscii("MTrk");
+    this.writeInt32(0);
+    return start;
+  }
+
+  /**
+   * Writes the end of the track chunk at the given position and fills in its length.
+   */
+  private void endTrack(long start) throws IOException {
+    this.writeDelta(0);
+    this.writeByte(0xFF);
+    this.writeByte(0x2F);
+    this.writeByte(0);
+    this.flush();
+    ByteBuffer length = ByteBuffer.allocate(4);
+    length.putInt(this.trackLength - 8);
+    length.flip();
+    while (length.hasRemaining()) {
+      this.channel.write(length, start + 4 + length.position());
+    }
+  }
+
+  /**
+   * Writes the given status byte unless it is the same as that of the last channel message, in
+   * which case the running status is used.
+   */
+  private void writeStatus(int status) throws IOException {
+    if (status != this.runningStatus) {
+      this.writeByte(status);
+      this.runningStatus = status;
+    }
+  }
+
+  /**
+   * Writes the given delta time as a MIDI variable length quantity.
+   */
+  private void writeDelta(long delta) throws IOException {
+    int value = (int) Math.min(delta, 0x0FFFFFFF);
+    int shift = 21;
+    while (shift > 0 && (value >>> shift) == 0) {
+      shift -= 7;
+    }
+    for (; shift > 0; shift -= 7) {
+      this.writeByte(0x80 | ((value >>> shift) & 0x7F));
+    }
+    this.writeByte(value & 0x7F);
+  }
+
+  /**
+   * Writes the given ASCII text.
+   */
+  private void writeAscii(String text) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      this.writeByte(text.charAt(i));
+    }
+  }
+
+  /**
+   * Writes the given int as four bytes, most significant first.
+   */
+  private void writeInt32(int value) throws IOException {
+    this.writeInt16(value >>> 16);
+    this.writeInt16(value);
+  }
+
+  /**
+   * Writes the low two bytes of the given int, most significant first.
+   */
+  private void writeInt16(int value) throws IOException {
+    this.writeByte(value >>> 8);
+    this.writeByte(value);
+  }
+
+  /**
+   * Writes the low byte of the given int, counting it towards the length of the track.
+   */
+  private void writeByte(int value) throws IOException {
+    if (!this.buffer.hasRemaining()) {
+      this.flush();
+    }
+    this.buffer.put((byte) value);
+    this.trackLength++;
+  }
+
+  /**
+   * Writes everything in the buffer to the file.
+   */
+  private void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+}
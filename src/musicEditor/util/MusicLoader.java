@@ -0,0 +1,292 @@
+package musicEditor.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads a music file into a builder on a background thread, adding the notes in batches as they
+ * are read rather than all at once at the end. Anything already built from a builder that keeps
+ * adding to the same composition, such as a
+ * {@link musicEditor.model.MusicEditorModel.Builder}, shows each batch as soon as it is added,
+ * so an editor can be opened before the file has been read.
+ * <p>The file is read on the loading thread, but each batch and tempo is handed to the builder
+ * through an executor. Giving {@code SwingUtilities::invokeLater} adds the notes on the event
+ * dispatch thread, so a GUI reading the composition there never sees it halfway through a batch.
+ * The next batch is read while the last one waits to be added, and no more than one batch waits
+ * at a time.</p>
+ * <p>Files large enough for {@link MusicReader} to parse in parallel are parsed the same way,
+ * by a {@link ChunkedNoteParser}, before their notes are handed over in batches. Smaller files
+ * are read from start to end a batch at a time.</p>
+ * <p>Nothing else should edit the composition until loading is complete.</p>
+ */
+public class MusicLoader {
+  /**
+   * The number of notes added to the builder at a time unless another size is given.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  private final Path path;
+  private final CompositionBuilder<?> piece;
+  private final int batchSize;
+  private final Executor executor;
+  private final List<LoadListener> listeners;
+  private volatile boolean complete;
+
+  /**
+   * Constructs a MusicLoader that adds the notes of the given file to the given builder on the
+   * loading thread, in batches of {@link #DEFAULT_BATCH_SIZE}.
+   * @param path the music file
+   * @param piece the builder the notes are added to
+   */
+  public MusicLoader(Path path, CompositionBuilder<?> piece) {
+    this(path, piece, Runnable::run);
+  }
+
+  /**
+   * Constructs a MusicLoader that adds the notes of the given file to the given builder through
+   * the given executor, in batches of {@link #DEFAULT_BATCH_SIZE}.
+   * @param path the music file
+   * @param piece the builder the notes are added to
+   * @param executor runs, in order, the tasks that add each batch and tempo to the builder
+   */
+  public MusicLoader(Path path, CompositionBuilder<?> piece, Executor executor) {
+    this(path, piece, DEFAULT_BATCH_SIZE, executor);
+  }
+
+  /**
+   * Constructs a MusicLoader that adds the notes of the given file to the given builder through
+   * the given executor, in batches of the given size.
+   * @param path the music file
+   * @param piece the builder the notes are added to
+   * @param batchSize the number of notes added at a time
+   * @param executor runs, in order, the tasks that add each batch and tempo to the builder
+   * @throws IllegalArgumentException if batchSize is not positive
+   */
+  public MusicLoader(Path path, CompositionBuilder<?> piece, int batchSize, Executor executor) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.path = path;
+    this.piece = piece;
+    this.batchSize = batchSize;
+    this.executor = executor;
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.complete = false;
+  }
+
+  /**
+   * Adds a listener that is told about the progress of loading.
+   * @param listener the listener
+   */
+  public void addLoadListener(LoadListener listener) {
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Starts loading on a new daemon thread and returns that thread.
+   * @return the loading thread
+   */
+  public Thread start() {
+    Thread thread = new Thread(this::load, "MusicLoader " + this.path.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Returns true once every note of the file has been added to the builder.
+   */
+  public boolean isComplete() {
+    return this.complete;
+  }
+
+  /**
+   * Reads the file, adding each batch of notes to the builder and telling the listeners.
+   */
+  private void load() {
+    Batches batches = new Batches();
+    try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < MusicReader.PARALLEL_THRESHOLD || size > Integer.MAX_VALUE) {
+        this.readBatches(channel, size, batches);
+      }
+      else {
+        this.parseInChunks(channel, size, batches);
+      }
+      batches.finish();
+    } catch (IOException | RuntimeException e) {
+      batches.abandon();
+      for (LoadListener listener : this.listeners) {
+        listener.loadFailed(e);
+      }
+      return;
+    }
+    this.complete = true;
+    for (LoadListener listener : this.listeners) {
+      listener.loadComplete(batches.loaded);
+    }
+  }
+
+  /**
+   * Reads the file from start to end a batch at a time, handing each batch over as soon as it is
+   * read. Two buffers take turns, so one can be read into while the notes of the other are being
+   * added.
+   */
+  private void readBatches(FileChannel channel, long size, Batches batches) throws IOException {
+    NoteTokenizer tokens = new NoteTokenizer(channel);
+    NoteBuffer[] buffers = {new NoteBuffer(this.batchSize), new NoteBuffer(this.batchSize)};
+    boolean done;
+    int turn = 0;
+    do {
+      NoteBuffer notes = buffers[turn];
+      turn = 1 - turn;
+      notes.clear();
+      List<Integer> tempos = new ArrayList<>();
+      try {
+        done = MusicReader.parse(tokens, tempos::add, notes, this.batchSize);
+      } catch (IllegalArgumentException e) {
+        // a rejected note before the malformed line is reported in its place
+        batches.add(notes, tempos, Math.min((double) channel.position() / size, 1));
+        batches.finish();
+        throw e;
+      }
+      double progress = done || size == 0 ? 1 : Math.min((double) channel.position() / size, 1);
+      batches.add(notes, tempos, progress);
+    } while (!done);
+  }
+
+  /**
+   * Parses the whole of a large file in parallel with a {@link ChunkedNoteParser}, then hands
+   * its notes over in batches, with every tempo set before the first. Nothing is shown until the
+   * parse is done, but the parse is shared among all the cores, and from then on the progress is
+   * the fraction of the notes handed over. If a line is malformed, the notes before it are
+   * handed over before it is reported.
+   */
+  private void parseInChunks(FileChannel channel, long size, Batches batches)
+      throws IOException {
+    MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    List<Integer> tempos = new ArrayList<>();
+    NoteBuffer parsed = new NoteBuffer();
+    IllegalArgumentException malformed = null;
+    try {
+      new ChunkedNoteParser(bytes).parse(tempos::add, parsed);
+    } catch (IllegalArgumentException e) {
+      // the notes before the malformed line are still handed over, so that a rejected note
+      // among them is reported in its place
+      malformed = e;
+    }
+    NoteBuffer[] buffers = {new NoteBuffer(this.batchSize), new NoteBuffer(this.batchSize)};
+    int from = 0;
+    int turn = 0;
+    do {
+      int to = Math.min(from + this.batchSize, parsed.size());
+      NoteBuffer notes = buffers[turn];
+      turn = 1 - turn;
+      notes.clear();
+      notes.addAll(parsed, from, to, 0);
+      double progress = parsed.size() == 0 ? 1 : (double) to / parsed.size();
+      batches.add(notes, from == 0 ? tempos : Collections.<Integer>emptyList(), progress);
+      from = to;
+    } while (from < parsed.size());
+    if (malformed != null) {
+      batches.finish();
+      throw malformed;
+    }
+  }
+
+  /**
+   * The batches handed to the executor, of which at most one is waiting to be added at a time.
+   * The listeners are told of a batch's progress once it has been added.
+   */
+  private final class Batches {
+    private CompletableFuture<Void> pending;
+    private int pendingSize;
+    private double pendingProgress;
+    private int pendingFrom;
+    private int pendingTo;
+    private int loaded;
+
+    private Batches() {
+      this.pending = null;
+      this.pendingSize = 0;
+      this.pendingProgress = 0;
+      this.pendingFrom = 0;
+      this.pendingTo = 0;
+      this.loaded = 0;
+    }
+
+    /**
+     * Waits for the batch before to be added, then hands the given batch to the executor. The
+     * given buffer must not be changed until the batch after it has been handed over.
+     * @param notes the notes of the batch
+     * @param tempos the tempos read with the batch, which are set before its notes are added
+     * @param progress the fraction of the file read once the batch is added
+     */
+    private void add(NoteBuffer notes, List<Integer> tempos, double progress) {
+      this.finish();
+      this.pendingSize = notes.size();
+      this.pendingProgress = progress;
+      this.pendingFrom = Integer.MAX_VALUE;
+      this.pendingTo = 0;
+      for (int i = 0; i < notes.size(); i++) {
+        this.pendingFrom = Math.min(this.pendingFrom, notes.getStart(i));
+        this.pendingTo = Math.max(this.pendingTo, notes.getEnd(i));
+      }
+      CompositionBuilder<?> piece = MusicLoader.this.piece;
+      this.pending = CompletableFuture.runAsync(() -> {
+        for (int tempo : tempos) {
+          piece.setTempo(tempo);
+        }
+        piece.addNotes(notes);
+      }, MusicLoader.this.executor);
+    }
+
+    /**
+     * Waits for the waiting batch, if any, to be added and tells the listeners, along with the
+     * beats its notes span.
+     * @throws RuntimeException the exception the batch was rejected with
+     */
+    private void finish() {
+      if (this.pending == null) {
+        return;
+      }
+      CompletableFuture<Void> pending = this.pending;
+      this.pending = null;
+      try {
+        pending.join();
+      } catch (CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw e;
+      }
+      this.loaded += this.pendingSize;
+      for (LoadListener listener : MusicLoader.this.listeners) {
+        listener.loadProgress(this.loaded, this.pendingProgress, this.pendingFrom,
+            this.pendingTo);
+      }
+    }
+
+    /**
+     * Waits for the waiting batch, if any, to be added or rejected without telling anyone, so
+     * that no batch is added after loading is reported to have failed.
+     */
+    private void abandon() {
+      if (this.pending != null) {
+        this.pending.handle((result, e) -> null).join();
+        this.pending = null;
+      }
+    }
+  }
+}
@@ -1,60 +1,246 @@
 package musicEditor.util;
 
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
 
 /**
  * A helper to read music data and construct a music composition from it.
+ *
+ * <p>
+ *   The input file format consists of two types of lines:
+ *   <ul>
+ *     <li>Tempo lines: the keyword "tempo" followed by a number,
+ *      describing the tempo in microseconds per beat</li>
+ *     <li>Note lines: the keyword "note" followed by five numbers indicating
+ *      the start and end times of the note, the instrument,
+ *      the pitch, and the volume</li>
+ *   </ul>
+ * </p>
+ * <p>
+ *   The input is read as bytes and split into words by hand rather than with a Scanner, so no
+ *   String is created for any word or number of a well formed file. Notes are collected as they
+ *   are read and handed to the builder all at once through
+ *   {@link CompositionBuilder#addNotes(NoteBuffer)} when the end of the source is reached.
+ *   Malformed input is reported with an IllegalArgumentException naming the offending line.
+ *   The notes before a malformed line are handed over before it is reported, so a note among
+ *   them that is invalid or overlaps another is reported first.
+ * </p>
+ * <p>
+ *   Large files given by path are memory mapped and parsed in newline aligned chunks on the
+ *   common fork-join pool by a {@link ChunkedNoteParser}. The result, including which error is
+ *   reported for a malformed file, is the same as reading the file from start to end.
+ * </p>
  */
 public class MusicReader {
+  /**
+   * Files smaller than this many bytes are not worth splitting into chunks.
+   */
+  static final long PARALLEL_THRESHOLD = 1 << 20;
+
   /**
    * A factory for producing new music compositions, given a source of music and a
    * builder for constructing compositions.
-   *
-   * <p>
-   *   The input file format consists of two types of lines:
-   *   <ul>
-   *     <li>Tempo lines: the keyword "tempo" followed by a number,
-   *      describing the tempo in microseconds per beat</li>
-   *     <li>Note lines: the keyword "note" followed by five numbers indicating
-   *      the start and end times of the note, the instrument,
-   *      the pitch, and the volume</li>
-   *   </ul>
-   * </p>
    * @param readable The source of data for the music composition
    * @param piece A builder for helping to construct a new composition
    * @param <T> The main model interface type describing music compositions
    * @return The main model interface type
+   * @throws UncheckedIOException if the source cannot be read
    */
   public static <T> T parseFile(Readable readable, CompositionBuilder<T> piece) {
-    Scanner scanner = new Scanner(readable);
-    while (scanner.hasNext()) {
-      String lineType = scanner.next();
-      switch (lineType) {
-        case "tempo":
-          try {
-            piece.setTempo(scanner.nextInt());
-          } catch (NoSuchElementException e) {
-            throw new IllegalArgumentException("Malformed tempo line: " + scanner.nextLine());
+    try {
+      return parseFile(new ReadableChannel(readable), piece);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * A factory for producing new music compositions, given the path of a music file and a
+   * builder for constructing compositions. Large files are parsed in parallel.
+   * @param path The music file
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return The main model interface type
+   * @throws IOException if the file cannot be read
+   */
+  public static <T> T parseFile(Path path, CompositionBuilder<T> piece) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < PARALLEL_THRESHOLD || size > Integer.MAX_VALUE) {
+        return parseFile(channel, piece);
+      }
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      NoteBuffer notes = new NoteBuffer();
+      try {
+        new ChunkedNoteParser(bytes).parse(piece::setTempo, notes);
+      } catch (IllegalArgumentException e) {
+        throw addBeforeError(piece, notes, e);
+      }
+      piece.addNotes(notes);
+      return piece.build();
+    }
+  }
+
+  /**
+   * A factory for producing new music compositions, given a channel of music data and a
+   * builder for constructing compositions. The channel is read to its end but not closed.
+   * @param channel The source of data for the music composition
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return The main model interface type
+   * @throws IOException if the channel cannot be read
+   */
+  public static <T> T parseFile(ReadableByteChannel channel, CompositionBuilder<T> piece)
+      throws IOException {
+    NoteBuffer notes = new NoteBuffer();
+    try {
+      parse(new NoteTokenizer(channel), piece::setTempo, notes);
+    } catch (IllegalArgumentException e) {
+      throw addBeforeError(piece, notes, e);
+    }
+    piece.addNotes(notes);
+    return piece.build();
+  }
+
+  /**
+   * Adds the notes read before a malformed line to the given builder and returns the error the
+   * line was reported with. If one of those notes is invalid or overlaps another, its error is
+   * thrown instead, so that errors are reported in file order, as they were when each note was
+   * added as soon as it was read.
+   * @param piece the builder the notes are added to
+   * @param notes the notes read before the malformed line
+   * @param malformed the error reported for the malformed line
+   * @return the given error
+   * @throws IllegalArgumentException if a note before the malformed line is rejected
+   */
+  static IllegalArgumentException addBeforeError(CompositionBuilder<?> piece, NoteBuffer notes,
+                                                 IllegalArgumentException malformed) {
+    piece.addNotes(notes);
+    return malformed;
+  }
+
+  /**
+   * Parses every line from the given tokenizer. Tempos are given to the given consumer in order
+   * and notes are added to the given buffer.
+   * @param tokens the source of words
+   * @param tempos the consumer of each tempo read
+   * @param notes the buffer the notes are added to
+   * @throws IOException if the source cannot be read
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  static void parse(NoteTokenizer tokens, IntConsumer tempos, NoteBuffer notes)
+      throws IOException {
+    parse(tokens, tempos, notes, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Parses lines from the given tokenizer until the given buffer holds the given number of notes
+   * or the input runs out. Tempos are given to the given consumer in order and notes are added to
+   * the given buffer.
+   * @param tokens the source of words
+   * @param tempos the consumer of each tempo read
+   * @param notes the buffer the notes are added to
+   * @param limit the number of notes the buffer may hold before parsing stops
+   * @return true if the end of the input was reached
+   * @throws IOException if the source cannot be read
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  static boolean parse(NoteTokenizer tokens, IntConsumer tempos, NoteBuffer notes, int limit)
+      throws IOException {
+    int[] values = new int[5];
+    while (notes.size() < limit) {
+      if (!tokens.hasNext()) {
+        return true;
+      }
+      int line = tokens.getLine();
+      if (tokens.nextWordEquals("tempo")) {
+        if (!tokens.nextInt()) {
+          throw new IllegalArgumentException(
+              "Malformed tempo line: " + tokens.restOfLine() + " (line " + line + ")");
+        }
+        tempos.accept(tokens.getValue());
+      }
+      else if (tokens.lastWordEquals("note")) {
+        for (int i = 0; i < values.length; i++) {
+          if (!tokens.nextInt()) {
+            throw new IllegalArgumentException(
+                "Malformed note line: " + tokens.restOfLine() + " (line " + line + ")");
+          }
+          values[i] = tokens.getValue();
+        }
+        notes.add(values[0], values[1], values[2], values[3], values[4], line);
+      }
+      else {
+        throw new IllegalArgumentException(
+            "Bad line type: " + tokens.lastWord() + " (line " + line + ")");
+      }
+    }
+    return !tokens.hasNext();
+  }
+
+  /**
+   * Adapts a Readable into a channel of the UTF-8 bytes of the characters it reads.
+   */
+  private static final class ReadableChannel implements ReadableByteChannel {
+    private final Readable readable;
+    private final CharBuffer chars;
+    private final CharsetEncoder encoder;
+    private boolean endOfInput;
+    private boolean flushed;
+
+    private ReadableChannel(Readable readable) {
+      this.readable = readable;
+      this.chars = CharBuffer.allocate(8192);
+      this.chars.flip();
+      this.encoder = StandardCharsets.UTF_8.newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int start = dst.position();
+      while (dst.position() == start) {
+        if (this.flushed) {
+          return -1;
+        }
+        if (this.endOfInput) {
+          if (this.encoder.encode(this.chars, dst, true).isUnderflow()) {
+            this.encoder.flush(dst);
+            this.flushed = true;
           }
-          break;
-        case "note":
-          try {
-            int startBeat = scanner.nextInt();
-            int endBeat = scanner.nextInt();
-            int instrument = scanner.nextInt();
-            int pitch = scanner.nextInt();
-            int volume = scanner.nextInt();
-            piece.addNote(startBeat, endBeat, instrument, pitch, volume);
-          } catch (NoSuchElementException e) {
-            throw new IllegalArgumentException("Malformed note line: " + scanner.nextLine());
+        }
+        else {
+          this.chars.compact();
+          if (this.readable.read(this.chars) < 0) {
+            this.endOfInput = true;
           }
-          break;
-        default:
-          throw new IllegalArgumentException("Bad line type: " + lineType);
+          this.chars.flip();
+          this.encoder.encode(this.chars, dst, false);
+        }
       }
+      return dst.position() - start;
     }
 
-    return piece.build();
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // the readable is owned by the caller
+    }
   }
 }
@@ -0,0 +1,277 @@
+package musicEditor.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer of notes kept in parallel primitive arrays. Each note occupies one index
+ * across the arrays of start beats, end beats, timbres, pitches, and volumes, using the same
+ * values that are given to {@link CompositionBuilder#addNote(int, int, int, int, int)}.
+ * Allows many notes to be collected and handed to a composition at once rather than one by one.
+ * A note may also record the line of the source it was read from, so that a note found to be
+ * invalid when the buffer is added to a composition can be reported by its line.
+ */
+public class NoteBuffer {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private int size;
+  private int[] starts;
+  private int[] ends;
+  private int[] timbres;
+  private int[] pitches;
+  private int[] volumes;
+  private int[] lines;
+
+  /**
+   * Constructs an empty NoteBuffer.
+   */
+  public NoteBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs an empty NoteBuffer with room for the given number of notes before it must grow.
+   * @param capacity the initial number of notes this buffer can hold
+   */
+  public NoteBuffer(int capacity) {
+    capacity = Math.max(capacity, 1);
+    this.size = 0;
+    this.starts = new int[capacity];
+    this.ends = new int[capacity];
+    this.timbres = new int[capacity];
+    this.pitches = new int[capacity];
+    this.volumes = new int[capacity];
+    this.lines = new int[capacity];
+  }
+
+  /**
+   * Adds a note to the end of this buffer.
+   * @param start The start time of the note, in beats
+   * @param end The end time of the note, in beats
+   * @param timbre The instrument number
+   * @param midiPitch The pitch
+   * @param volume The volume
+   */
+  public void add(int start, int end, int timbre, int midiPitch, int volume) {
+    this.add(start, end, timbre, midiPitch, volume, 0);
+  }
+
+  /**
+   * Adds a note read from the given line of a source to the end of this buffer.
+   * @param start The start time of the note, in beats
+   * @param end The end time of the note, in beats
+   * @param timbre The instrument number
+   * @param midiPitch The pitch
+   * @param volume The volume
+   * @param line The line the note was read from, counting from one, or zero if it is not known
+   */
+  public void add(int start, int end, int timbre, int midiPitch, int volume, int line) {
+    if (this.size == this.starts.length) {
+      this.grow(this.size * 2);
+    }
+    this.starts[this.size] = start;
+    this.ends[this.size] = end;
+    this.timbres[this.size] = timbre;
+    this.pitches[this.size] = midiPitch;
+    this.volumes[this.size] = volume;
+    this.lines[this.size] = line;
+    this.size++;
+  }
+
+  /**
+   * Adds every note of the given buffer to the end of this buffer, in order.
+   * @param other the buffer whose notes are added
+   */
+  public void addAll(NoteBuffer other) {
+    this.addAll(other, 0);
+  }
+
+  /**
+   * Adds every note of the given buffer to the end of this buffer, in order, moving the known
+   * line of each note down by the given number of lines. Used when the other buffer was read from
+   * a part of a source that started after the given number of lines.
+   * @param other the buffer whose notes are added
+   * @param lineOffset the number of lines before the part the other buffer was read from
+   */
+  void addAll(NoteBuffer other, int lineOffset) {
+    this.addAll(other, 0, other.size, lineOffset);
+  }
+
+  /**
+   * Adds the notes between the given indices of the given buffer to the end of this buffer, in
+   * order, moving the known line of each note down by the given number of lines.
+   * @param other the buffer whose notes are added
+   * @param from the index of the first note added
+   * @param to the index after the last note added
+   * @param lineOffset the number of lines before the part the other buffer was read from
+   */
+  void addAll(NoteBuffer other, int from, int to, int lineOffset) {
+    int count = to - from;
+    if (this.size + count > this.starts.length) {
+      this.grow(Math.max(this.size * 2, this.size + count));
+    }
+    System.arraycopy(other.starts, from, this.starts, this.size, count);
+    System.arraycopy(other.ends, from, this.ends, this.size, count);
+    System.arraycopy(other.timbres, from, this.timbres, this.size, count);
+    System.arraycopy(other.pitches, from, this.pitches, this.size, count);
+    System.arraycopy(other.volumes, from, this.volumes, this.size, count);
+    for (int i = 0; i < count; i++) {
+      int line = other.lines[from + i];
+      this.lines[this.size + i] = line == 0 ? 0 : line + lineOffset;
+    }
+    this.size += count;
+  }
+
+  /**
+   * Returns the number of notes in this buffer.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns true if this buffer holds no notes.
+   */
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Removes every note from this buffer, keeping its capacity.
+   */
+  public void clear() {
+    this.size = 0;
+  }
+
+  /**
+   * Gets the start beat of the note at the given index.
+   */
+  public int getStart(int index) {
+    return this.starts[this.checkIndex(index)];
+  }
+
+  /**
+   * Gets the end beat of the note at the given index.
+   */
+  public int getEnd(int index) {
+    return this.ends[this.checkIndex(index)];
+  }
+
+  /**
+   * Gets the timbre of the note at the given index.
+   */
+  public int getTimbre(int index) {
+    return this.timbres[this.checkIndex(index)];
+  }
+
+  /**
+   * Gets the MIDI pitch of the note at the given index.
+   */
+  public int getPitch(int index) {
+    return this.pitches[this.checkIndex(index)];
+  }
+
+  /**
+   * Gets the volume of the note at the given index.
+   */
+  public int getVolume(int index) {
+    return this.volumes[this.checkIndex(index)];
+  }
+
+  /**
+   * Gets the line the note at the given index was read from, or zero if it is not known.
+   */
+  public int getLine(int index) {
+    return this.lines[this.checkIndex(index)];
+  }
+
+  /**
+   * Sorts the notes in this buffer by timbre, then pitch, then start beat. The sort is stable, so
+   * notes that compare equal keep the order they were added in.
+   */
+  public void sort() {
+    int[] order = new int[this.size];
+    for (int i = 0; i < this.size; i++) {
+      order[i] = i;
+    }
+    // bottom up merge sort of the note indices
+    int[] temp = new int[this.size];
+    for (int width = 1; width < this.size; width *= 2) {
+      for (int low = 0; low < this.size - width; low += 2 * width) {
+        int mid = low + width;
+        int high = Math.min(low + 2 * width, this.size);
+        if (this.compare(order[mid - 1], order[mid]) <= 0) {
+          continue;
+        }
+        int left = low;
+        int right = mid;
+        int out = low;
+        while (left < mid && right < high) {
+          temp[out++] = this.compare(order[left], order[right]) <= 0
+              ? order[left++] : order[right++];
+        }
+        while (left < mid) {
+          temp[out++] = order[left++];
+        }
+        while (right < high) {
+          temp[out++] = order[right++];
+        }
+        System.arraycopy(temp, low, order, low, high - low);
+      }
+    }
+    this.starts = permute(this.starts, order);
+    this.ends = permute(this.ends, order);
+    this.timbres = permute(this.timbres, order);
+    this.pitches = permute(this.pitches, order);
+    this.volumes = permute(this.volumes, order);
+    this.lines = permute(this.lines, order);
+  }
+
+  /**
+   * Compares the notes at the given indices by timbre, then pitch, then start beat.
+   */
+  private int compare(int a, int b) {
+    if (this.timbres[a] != this.timbres[b]) {
+      return Integer.compare(this.timbres[a], this.timbres[b]);
+    }
+    if (this.pitches[a] != this.pitches[b]) {
+      return Integer.compare(this.pitches[a], this.pitches[b]);
+    }
+    return Integer.compare(this.starts[a], this.starts[b]);
+  }
+
+  /**
+   * Returns a new array holding the values of the given array in the given order. The new array
+   * has the same capacity as the given one.
+   */
+  private static int[] permute(int[] values, int[] order) {
+    int[] result = new int[values.length];
+    for (int i = 0; i < order.length; i++) {
+      result[i] = values[order[i]];
+    }
+    return result;
+  }
+
+  /**
+   * Grows every array of this buffer to the given capacity.
+   */
+  private void grow(int capacity) {
+    this.starts = Arrays.copyOf(this.starts, capacity);
+    this.ends = Arrays.copyOf(this.ends, capacity);
+    this.timbres = Arrays.copyOf(this.timbres, capacity);
+    this.pitches = Arrays.copyOf(this.pitches, capacity);
+    this.volumes = Arrays.copyOf(this.volumes, capacity);
+    this.lines = Arrays.copyOf(this.lines, capacity);
+  }
+
+  /**
+   * Returns the given index if it refers to a note in this buffer.
+   * @throws IndexOutOfBoundsException if it does not
+   */
+  private int checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("index " + index + " is out of bounds for "
+          + this.size + " notes");
+    }
+    return index;
+  }
+}
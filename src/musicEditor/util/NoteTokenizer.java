@@ -0,0 +1,242 @@
+package musicEditor.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the bytes of a music file into whitespace separated words and integers without creating
+ * a String for each one. Bytes are read either from a channel, through a buffer that is refilled
+ * as it runs out, or from a single buffer that already holds all of the input.
+ * Keeps track of the line it is on so that errors can say where they happened.
+ */
+final class NoteTokenizer {
+  private static final int DEFAULT_CAPACITY = 1 << 16;
+  private static final int MINIMUM_READ = 16;
+
+  private final ReadableByteChannel channel;
+  private ByteBuffer buffer;
+  private int position;
+  private int limit;
+  private int mark;
+  private int line;
+  private int value;
+
+  /**
+   * Constructs a NoteTokenizer that reads from the given channel.
+   * @param channel the source of bytes
+   */
+  NoteTokenizer(ReadableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(DEFAULT_CAPACITY);
+    this.position = 0;
+    this.limit = 0;
+    this.mark = 0;
+    this.line = 1;
+  }
+
+  /**
+   * Constructs a NoteTokenizer that reads the bytes between the position and limit of the given
+   * buffer, counting lines from the given line number.
+   * @param buffer the bytes to read
+   * @param line the line number of the first byte
+   */
+  NoteTokenizer(ByteBuffer buffer, int line) {
+    this.channel = null;
+    this.buffer = buffer;
+    this.position = buffer.position();
+    this.limit = buffer.limit();
+    this.mark = this.position;
+    this.line = line;
+  }
+
+  /**
+   * Gets the line the next word starts on, or the line the last word ended on if no word has
+   * been started since.
+   */
+  int getLine() {
+    return this.line;
+  }
+
+  /**
+   * Gets the integer read by the last successful call to {@link #nextInt()}.
+   */
+  int getValue() {
+    return this.value;
+  }
+
+  /**
+   * Skips whitespace up to the start of the next word. Returns false if the input has run out.
+   */
+  boolean hasNext() throws IOException {
+    int c;
+    while ((c = this.peek()) != -1 && isWhitespace(c)) {
+      if (c == '\n') {
+        this.line++;
+      }
+      this.position++;
+      this.mark = this.position;
+    }
+    return c != -1;
+  }
+
+  /**
+   * Reads the next word and returns whether it is the same as the given ASCII word. Returns false
+   * if the input has run out. The word is consumed either way.
+   * @param word the ASCII word being compared to
+   */
+  boolean nextWordEquals(String word) throws IOException {
+    if (!this.hasNext()) {
+      return false;
+    }
+    this.mark = this.position;
+    boolean equal = true;
+    int length = 0;
+    int c;
+    while ((c = this.peek()) != -1 && !isWhitespace(c)) {
+      equal = equal && length < word.length() && word.charAt(length) == c;
+      length++;
+      this.position++;
+    }
+    return equal && length == word.length();
+  }
+
+  /**
+   * Returns whether the last word read by {@link #nextWordEquals(String)} is the same as the given
+   * ASCII word, comparing the bytes in the buffer without making a String. Only valid until the
+   * next word or integer is read.
+   * @param word the ASCII word being compared to
+   */
+  boolean lastWordEquals(String word) {
+    if (this.position - this.mark != word.length()) {
+      return false;
+    }
+    for (int i = 0; i < word.length(); i++) {
+      if ((this.buffer.get(this.mark + i) & 0xFF) != word.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the last word read by {@link #nextWordEquals(String)} as a String. Only valid until
+   * the next word or integer is read.
+   */
+  String lastWord() {
+    return this.decode(this.mark, this.position);
+  }
+
+  /**
+   * Reads the next word as an integer, which is made available through {@link #getValue()}.
+   * Returns false, leaving the word unread, if the input has run out or the next word is not an
+   * integer that fits in an int.
+   */
+  boolean nextInt() throws IOException {
+    if (!this.hasNext()) {
+      return false;
+    }
+    this.mark = this.position;
+    int c = this.peek();
+    boolean negative = c == '-';
+    if (c == '-' || c == '+') {
+      this.position++;
+    }
+    long result = 0;
+    int digits = 0;
+    while ((c = this.peek()) >= '0' && c <= '9') {
+      result = result * 10 + (c - '0');
+      digits++;
+      this.position++;
+      if (result > (long) Integer.MAX_VALUE + 1) {
+        break;
+      }
+    }
+    if (negative) {
+      result = -result;
+    }
+    if (digits == 0 || (c != -1 && !isWhitespace(c))
+        || result > Integer.MAX_VALUE || result < Integer.MIN_VALUE) {
+      this.position = this.mark;
+      return false;
+    }
+    this.value = (int) result;
+    return true;
+  }
+
+  /**
+   * Reads and returns the rest of the current line, starting from the next unread byte. Used to
+   * describe malformed lines.
+   */
+  String restOfLine() throws IOException {
+    this.mark = this.position;
+    int c;
+    while ((c = this.peek()) != -1 && c != '\n' && c != '\r') {
+      this.position++;
+    }
+    return this.decode(this.mark, this.position);
+  }
+
+  /**
+   * Returns the next byte without consuming it, or -1 if the input has run out.
+   */
+  private int peek() throws IOException {
+    if (this.position == this.limit && !this.fill()) {
+      return -1;
+    }
+    return this.buffer.get(this.position) & 0xFF;
+  }
+
+  /**
+   * Reads more bytes from the channel into the buffer, keeping the bytes from the mark onward.
+   * Returns false if there are no more bytes to read.
+   */
+  private boolean fill() throws IOException {
+    if (this.channel == null) {
+      return false;
+    }
+    int kept = this.limit - this.mark;
+    if (this.buffer.capacity() - kept < MINIMUM_READ) {
+      // the current word fills almost the whole buffer so the buffer must grow
+      ByteBuffer bigger = ByteBuffer.allocate(this.buffer.capacity() * 2);
+      bigger.put(this.buffer.array(), 0, kept);
+      this.buffer = bigger;
+    }
+    else if (this.mark > 0) {
+      System.arraycopy(this.buffer.array(), this.mark, this.buffer.array(), 0, kept);
+    }
+    this.position -= this.mark;
+    this.limit = kept;
+    this.mark = 0;
+    this.buffer.limit(this.buffer.capacity());
+    this.buffer.position(this.limit);
+    int read;
+    do {
+      read = this.channel.read(this.buffer);
+    } while (read == 0);
+    if (read < 0) {
+      return false;
+    }
+    this.limit += read;
+    return true;
+  }
+
+  /**
+   * Decodes the bytes between the given indices of the buffer as UTF-8.
+   */
+  private String decode(int from, int to) {
+    byte[] bytes = new byte[to - from];
+    for (int i = from; i < to; i++) {
+      bytes[i - from] = this.buffer.get(i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns whether the given byte is whitespace.
+   */
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+  }
+}
@@ -0,0 +1,357 @@
+package musicEditor.util;
+
+import musicEditor.music.ChannelMap;
+import musicEditor.music.CompositionSnapshot;
+import musicEditor.music.MusicComposition;
+import musicEditor.music.RowEvents;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Renders compositions to 16 bit stereo PCM WAV files through the software synthesizer, without
+ * a sound card and much faster than real time.
+ *
+ * <p>
+ *   The synthesizer is opened as an audio stream rather than on an audio line, so it renders only
+ *   as fast as the stream is read. The composition is rendered a block at a time: the note events
+ *   falling within the block are sent stamped with their time, and then the block is read from
+ *   the stream and written out. The events are produced in order of time by merging the rows of
+ *   the composition through a binary heap, in the same way as by {@link MidiWriter}, so memory
+ *   does not grow with the length of the composition. The file ends a second after the last beat
+ *   so that the last tones can die away.
+ * </p>
+ * <p>
+ *   A synthesizer has only fifteen channels for instruments, so a composition with more timbres
+ *   than that is rendered by one synthesizer for each fifteen timbres, one after the other, and
+ *   their blocks are summed. No two timbres ever share a channel.
+ * </p>
+ * <p>
+ *   Rendering can instead give every timbre a synthesizer of its own. The blocks of all timbres are
+ *   then rendered in parallel on the common fork-join pool and summed into one, which uses every
+ *   processor and also gives each timbre a channel to itself.
+ * </p>
+ * <p>
+ *   Opening the synthesizer as a stream relies on the JDK's internal
+ *   {@code com.sun.media.sound.AudioSynthesizer}, which is found by reflection so that this class
+ *   compiles on any JDK. A JVM that refuses the access can be run with
+ *   {@code --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED}.
+ * </p>
+ */
+public class WavWriter {
+  /**
+   * The number of frames a second in the files written.
+   */
+  public static final int SAMPLE_RATE = 44100;
+
+  private static final int CHANNELS = 2;
+  private static final int FRAME_SIZE = 2 * CHANNELS;
+  private static final int BLOCK_FRAMES = SAMPLE_RATE / 4;
+  private static final long TAIL_MICROSECONDS = 1000000;
+
+  /**
+   * Renders the given composition at the given tempo to the WAV file at the given path, replacing
+   * the file if it exists. Every timbre is rendered by one synthesizer, or by as few as give each
+   * timbre a channel of its own.
+   * @param composition the composition to render
+   * @param tempo the tempo in microseconds per beat
+   * @param path the file to write to
+   * @throws IOException if the file cannot be written
+   * @throws MidiUnavailableException if the synthesizer cannot be opened as a stream
+   */
+  public static void write(MusicComposition composition, int tempo, Path path)
+      throws IOException, MidiUnavailableException {
+    write(composition, tempo, path, false);
+  }
+
+  /**
+   * Renders the given composition at the given tempo to the WAV file at the given path, replacing
+   * the file if it exists. The tones rendered are those of the composition's latest snapshot.
+   * @param composition the composition to render
+   * @param tempo the tempo in microseconds per beat
+   * @param path the file to write to
+   * @param parallel whether each timbre is rendered by a synthesizer of its own, in parallel
+   * @throws IOException if the file cannot be written
+   * @throws MidiUnavailableException if a synthesizer cannot be opened as a stream
+   * @throws IllegalArgumentException if tempo is not positive
+   */
+  public static void write(MusicComposition composition, int tempo, Path path, boolean parallel)
+      throws IOException, MidiUnavailableException {
+    if (tempo <= 0) {
+      throw new IllegalArgumentException("tempo must be positive");
+    }
+    CompositionSnapshot snapshot = composition.snapshot();
+    List<Renderer> renderers = new ArrayList<>();
+    try {
+      if (parallel) {
+        for (int timbre = 1; timbre <= 128; timbre++) {
+          if (!snapshot.range(timbre).isEmpty()) {
+            renderers.add(new Renderer(snapshot, tempo, timbre, timbre));
+          }
+        }
+      }
+      else {
+        // each renderer takes as many timbres as its synthesizer has channels for
+        int fromTimbre = 1;
+        int count = 0;
+        for (int timbre = 1; timbre <= 128; timbre++) {
+          if (!snapshot.range(timbre).isEmpty() && ++count == ChannelMap.MELODIC_CHANNELS) {
+            renderers.add(new Renderer(snapshot, tempo, fromTimbre, timbre));
+            fromTimbre = timbre + 1;
+            count = 0;
+          }
+        }
+        if (count > 0 || renderers.isEmpty()) {
+          renderers.add(new Renderer(snapshot, tempo, fromTimbre, 128));
+        }
+      }
+      long frames =
+          ((long) snapshot.length() * tempo + TAIL_MICROSECONDS) * SAMPLE_RATE / 1000000;
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+        writeHeader(out, frames * FRAME_SIZE);
+        render(renderers, parallel, frames, out);
+      }
+    } finally {
+      for (Renderer renderer : renderers) {
+        renderer.close();
+      }
+    }
+  }
+
+  /**
+   * Renders the given number of frames with the given renderers a block at a time, in parallel or
+   * one after the other, writing the sum of their blocks to the given stream.
+   */
+  private static void render(List<Renderer> renderers, boolean parallel, long frames,
+                             OutputStream out) throws IOException {
+    byte[] mixed = new byte[BLOCK_FRAMES * FRAME_SIZE];
+    for (long frame = 0; frame < frames; frame += BLOCK_FRAMES) {
+      int length = (int) Math.min(BLOCK_FRAMES, frames - frame) * FRAME_SIZE;
+      long endMicroseconds = (frame + BLOCK_FRAMES) * 1000000 / SAMPLE_RATE;
+      if (renderers.size() == 1) {
+        renderers.get(0).render(endMicroseconds, length);
+        out.write(renderers.get(0).block, 0, length);
+        continue;
+      }
+      if (parallel) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Renderer renderer : renderers) {
+          tasks.add(ForkJoinTask.adapt(() -> {
+            try {
+              renderer.render(endMicroseconds, length);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }));
+        }
+        try {
+          ForkJoinTask.invokeAll(tasks);
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      }
+      else {
+        for (Renderer renderer : renderers) {
+          renderer.render(endMicroseconds, length);
+        }
+      }
+      mix(renderers, mixed, length);
+      out.write(mixed, 0, length);
+    }
+  }
+
+  /**
+   * Sums the blocks of the given renderers into the given block as little endian 16 bit samples,
+   * clipping any sample that does not fit.
+   */
+  private static void mix(List<Renderer> renderers, byte[] mixed, int length) {
+    for (int i = 0; i < length; i += 2) {
+      int sample = 0;
+      for (Renderer renderer : renderers) {
+        sample += (short) ((renderer.block[i] & 0xFF) | (renderer.block[i + 1] << 8));
+      }
+      sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+      mixed[i] = (byte) sample;
+      mixed[i + 1] = (byte) (sample >> 8);
+    }
+  }
+
+  /**
+   * Writes the header of a WAV file holding the given number of bytes of 16 bit stereo PCM.
+   */
+  private static void writeHeader(OutputStream out, long dataSize) throws IOException {
+    if (dataSize > 0xFFFFFFFFL - 36) {
+      throw new IOException("composition is too long for a WAV file");
+    }
+    out.write(new byte[] {'R', 'I', 'F', 'F'});
+    writeInt32(out, (int) (36 + dataSize));
+    out.write(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+    writeInt32(out, 16);
+    writeInt16(out, 1);
+    writeInt16(out, CHANNELS);
+    writeInt32(out, SAMPLE_RATE);
+    writeInt32(out, SAMPLE_RATE * FRAME_SIZE);
+    writeInt16(out, FRAME_SIZE);
+    writeInt16(out, 16);
+    out.write(new byte[] {'d', 'a', 't', 'a'});
+    writeInt32(out, (int) dataSize);
+  }
+
+  /**
+   * Writes the given int as four bytes, least significant first.
+   */
+  private static void writeInt32(OutputStream out, int value) throws IOException {
+    writeInt16(out, value);
+    writeInt16(out, value >>> 16);
+  }
+
+  /**
+   * Writes the low two bytes of the given int, least significant first.
+   */
+  private static void writeInt16(OutputStream out, int value) throws IOException {
+    out.write(value);
+    out.write(value >>> 8);
+  }
+
+  /**
+   * Opens the given synthesizer as a stream of audio in the given format.
+   */
+  private static AudioInputStream openStream(Synthesizer synthesizer, AudioFormat format)
+      throws MidiUnavailableException {
+    try {
+      Class<?> audioSynthesizer = Class.forName("com.sun.media.sound.AudioSynthesizer");
+      if (audioSynthesizer.isInstance(synthesizer)) {
+        Method openStream = audioSynthesizer.getMethod("openStream", AudioFormat.class, Map.class);
+        return (AudioInputStream) openStream.invoke(synthesizer, format, null);
+      }
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof MidiUnavailableException) {
+        throw (MidiUnavailableException) e.getCause();
+      }
+      throw unavailable(e.getCause());
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      throw unavailable(e);
+    }
+    throw new MidiUnavailableException("the default synthesizer cannot render to a stream");
+  }
+
+  /**
+   * Returns an exception saying the synthesizer could not be opened as a stream for the given
+   * reason.
+   */
+  private static MidiUnavailableException unavailable(Throwable cause) {
+    MidiUnavailableException e = new MidiUnavailableException("cannot open the synthesizer as a "
+        + "stream; run with --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED: " + cause);
+    e.initCause(cause);
+    return e;
+  }
+
+  /**
+   * Renders the tones of a range of timbres through a synthesizer of its own.
+   */
+  private static final class Renderer {
+    private final long tempo;
+    private final Synthesizer synthesizer;
+    private final Receiver receiver;
+    private final AudioInputStream stream;
+    private final byte[] block;
+    private final ChannelMap channels;
+    private final RowEvents events;
+
+    /**
+     * Opens a synthesizer for the timbres of the given snapshot from one given timbre to the
+     * other, and sends a program change for each of them.
+     */
+    private Renderer(CompositionSnapshot snapshot, int tempo, int fromTimbre, int toTimbre)
+        throws MidiUnavailableException {
+      this.tempo = tempo;
+      this.synthesizer = MidiSystem.getSynthesizer();
+      this.stream = openStream(this.synthesizer,
+          new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false));
+      this.receiver = this.synthesizer.getReceiver();
+      this.block = new byte[BLOCK_FRAMES * FRAME_SIZE];
+      this.channels = new ChannelMap();
+      this.events = new RowEvents();
+      this.events.reset(snapshot);
+      for (int timbre = fromTimbre; timbre <= toTimbre; timbre++) {
+        if (!snapshot.range(timbre).isEmpty()) {
+          this.send(ShortMessage.PROGRAM_CHANGE, this.channels.channelOf(timbre), timbre - 1, 0,
+              -1);
+          for (int midiPitch = 0; midiPitch < 128; midiPitch++) {
+            this.events.startRow(timbre, midiPitch, 0);
+          }
+        }
+      }
+    }
+
+    /**
+     * Sends every event before the given time, then reads the given number of bytes of audio
+     * into this renderer's block.
+     */
+    private void render(long endMicroseconds, int length) throws IOException {
+      while (!this.events.isEmpty()
+          && RowEvents.beat(this.events.peek()) * this.tempo < endMicroseconds) {
+        this.send(this.events.pop());
+      }
+      for (int read = 0; read < length; ) {
+        int count = this.stream.read(this.block, read, length - read);
+        if (count < 0) {
+          throw new IOException("the synthesizer stopped producing audio");
+        }
+        read += count;
+      }
+    }
+
+    /**
+     * Sends the given event, just taken from the heap.
+     */
+    private void send(long event) {
+      int channel = this.channels.channelOf(RowEvents.timbre(event));
+      int midiPitch = RowEvents.midiPitch(event);
+      long timeStamp = RowEvents.beat(event) * this.tempo;
+      if (RowEvents.isNoteOn(event)) {
+        int volume = Math.min(this.events.volumeOf(event), 127);
+        this.send(ShortMessage.NOTE_ON, channel, midiPitch, volume, timeStamp);
+      }
+      else {
+        this.send(ShortMessage.NOTE_OFF, channel, midiPitch, 0, timeStamp);
+      }
+    }
+
+    /**
+     * Sends a message of the given command, channel, and data to the synthesizer.
+     */
+    private void send(int command, int channel, int data1, int data2, long timeStamp) {
+      try {
+        this.receiver.send(new ShortMessage(command, channel, data1, data2), timeStamp);
+      } catch (InvalidMidiDataException e) {
+        e.printStackTrace();
+      }
+    }
+
+    /**
+     * Closes the synthesizer.
+     */
+    private void close() {
+      this.synthesizer.close();
+    }
+  }
+}
@@ -21,5 +21,44 @@ public interface IMusicEditorView {
 
   void initialize();
 
+  /**
+   * Shows where the player is. Only the parts of the view that move with the playhead are
+   * repainted, and they keep moving for as long as the player plays.
+   */
   void update();
+
+  /**
+   * Redraws the composition from one beat up to but not including another, after tones within
+   * those beats were added or removed. Nothing outside those beats is repainted unless the
+   * length of the composition changed.
+   * @param fromBeat the first beat that changed
+   * @param toBeat the beat after the last beat that changed
+   */
+  void refresh(int fromBeat, int toBeat);
+
+  /**
+   * Zooms the sheet in by one level, keeping the beat at the middle of the view in place. Does
+   * nothing at the nearest level.
+   */
+  void zoomIn();
+
+  /**
+   * Zooms the sheet out by one level, keeping the beat at the middle of the view in place. At the
+   * far levels the sheet is drawn from the density of its tones. Does nothing at the farthest
+   * level.
+   */
+  void zoomOut();
+
+  /**
+   * Shows how much of the composition has been loaded. The indicator is hidden once progress
+   * reaches 1. The notes loaded are drawn by {@link #refresh(int, int)}.
+   * @param progress the fraction of the composition loaded, from 0 to 1
+   */
+  void setLoadProgress(double progress);
+
+  /**
+   * Tells the user that loading the composition stopped early.
+   * @param message why loading stopped
+   */
+  void showLoadError(String message);
 }
@@ -3,36 +3,46 @@ package musicEditor.view;
 import musicEditor.MusicEditor;
 import musicEditor.gui.EditorPanel;
 import musicEditor.gui.MeasuresComponent;
+import musicEditor.gui.MinimapComponent;
 import musicEditor.gui.PianoPanel;
 import musicEditor.gui.PitchesComponent;
+import musicEditor.gui.SheetLayout;
+import musicEditor.music.CompositionSnapshot;
 import musicEditor.music.MusicComposition;
 import musicEditor.music.MusicPlayer;
 import musicEditor.music.MusicTracker;
+import musicEditor.music.Pitch;
 
 import javax.sound.midi.MetaEventListener;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.util.SortedSet;
 
 /**
  * Represents the view for the music editor.
  */
 public class MusicEditorView implements IMusicEditorView {
-  private final int CELL_WIDTH = 20;
-  private final int CELL_HEIGHT = 20;
-
   private MusicComposition composition;
   private MusicTracker tracker;
   private MusicPlayer player;
 
   private JFrame frame;
   private JScrollPane upperScrollPane;
-  private JComponent measuresComponent;
+  private MeasuresComponent measuresComponent;
   private JComponent pitchesComponent;
-  private JPanel editorPanel;
+  private EditorPanel editorPanel;
+  private MinimapComponent minimap;
 
-  private JPanel pianoPanel;
+  private PianoPanel pianoPanel;
+  private JProgressBar loadBar;
+  private PlayheadClock clock;
+  private int shownLowest;
+  private int shownRows;
+  private int shownLength;
 
   /**
    * Constructs new MusicEditorView with the given composition, tracker, and player
@@ -49,10 +59,37 @@ public class MusicEditorView implements IMusicEditorView {
     this.pitchesComponent = new PitchesComponent(composition, tracker, player);
     this.editorPanel = new EditorPanel(composition, tracker, player);
     this.pianoPanel = new PianoPanel(composition, tracker, player);
+    this.minimap = new MinimapComponent(composition, tracker, this.editorPanel.getDensity());
 
     this.upperScrollPane = new JScrollPane(this.editorPanel);
     this.upperScrollPane.setColumnHeaderView(this.measuresComponent);
     this.upperScrollPane.setRowHeaderView(this.pitchesComponent);
+    // scrolling copies what stays in view and repaints only what comes into it
+    this.upperScrollPane.getViewport().setScrollMode(JViewport.BLIT_SCROLL_MODE);
+    this.upperScrollPane.getColumnHeader().setScrollMode(JViewport.BLIT_SCROLL_MODE);
+    this.upperScrollPane.getViewport().addChangeListener(e -> this.showVisibleBeats());
+
+    // pressing or dragging on the minimap centers the view on that beat
+    MouseAdapter minimapMouse = new MouseAdapter() {
+      @Override
+      public void mousePressed(MouseEvent e) {
+        MusicEditorView.this.centerOn(MusicEditorView.this.minimap.beatAt(e.getX()));
+      }
+
+      @Override
+      public void mouseDragged(MouseEvent e) {
+        MusicEditorView.this.centerOn(MusicEditorView.this.minimap.beatAt(e.getX()));
+      }
+    };
+    this.minimap.addMouseListener(minimapMouse);
+    this.minimap.addMouseMotionListener(minimapMouse);
+
+    this.loadBar = new JProgressBar(0, 1000);
+    this.loadBar.setStringPainted(true);
+    this.loadBar.setString("Loading");
+    this.loadBar.setVisible(false);
+
+    this.clock = new PlayheadClock(player, this::showPlayhead);
   }
 
   @Override
@@ -83,21 +120,135 @@ public class MusicEditorView implements IMusicEditorView {
     frame.setLayout(new BorderLayout());
     frame.add(this.upperScrollPane, BorderLayout.CENTER);
     frame.add(this.pianoPanel, BorderLayout.SOUTH);
+    JPanel top = new JPanel(new BorderLayout());
+    top.add(this.loadBar, BorderLayout.NORTH);
+    top.add(this.minimap, BorderLayout.CENTER);
+    frame.add(top, BorderLayout.NORTH);
     frame.pack();
     frame.setVisible(true);
   }
 
   @Override
   public void update() {
-    // moves the view to where the beat is
-    int beat = (int) this.player.getSequencer().getTickPosition();
-    int viewWidth = this.upperScrollPane.getViewport().getWidth();
-    int beatPerView = viewWidth / this.CELL_WIDTH;
-    int page = beat - (beat % beatPerView);
-    int x = page * this.CELL_WIDTH;
+    // the clock moves the playhead and the view, and keeps doing so while the player plays
+    this.clock.sync();
+  }
+
+  @Override
+  public void refresh(int fromBeat, int toBeat) {
+    CompositionSnapshot snapshot = this.composition.snapshot();
+    SortedSet<Pitch> range = snapshot.range(this.tracker.getTimbre());
+    int lowest = range.isEmpty() ? 0 : range.first().midiPitch();
+    int length = snapshot.length();
+    this.pianoPanel.refresh();
+    if (lowest != this.shownLowest || range.size() != this.shownRows) {
+      // every row moved, so everything in view is redrawn
+      this.relayout(lowest, range.size(), length);
+      this.upperScrollPane.repaint();
+      return;
+    }
+    if (length != this.shownLength) {
+      // the lines of the sheet now reach to a different beat
+      fromBeat = Math.min(fromBeat, Math.min(length, this.shownLength));
+      toBeat = Math.max(toBeat, Math.max(length, this.shownLength) + 1);
+      this.relayout(lowest, range.size(), length);
+      this.measuresComponent.repaint();
+    }
+    this.editorPanel.repaintBeats(Math.max(fromBeat, 0), toBeat);
+    this.minimap.refresh();
+  }
+
+  @Override
+  public void zoomIn() {
+    this.zoom(this.editorPanel.getSheetLayout().zoomIn());
+  }
+
+  @Override
+  public void zoomOut() {
+    this.zoom(this.editorPanel.getSheetLayout().zoomOut());
+  }
+
+  /**
+   * Draws the sheet with the given layout, keeping the beat at the middle of the view in place.
+   */
+  private void zoom(SheetLayout layout) {
+    SheetLayout old = this.editorPanel.getSheetLayout();
+    if (layout == old) {
+      return;
+    }
     JViewport viewport = this.upperScrollPane.getViewport();
+    int center = old.beatAt(viewport.getViewPosition().x + viewport.getWidth() / 2);
+    this.editorPanel.setSheetLayout(layout);
+    this.measuresComponent.setSheetLayout(layout);
+    // lays the sheet out at its new width at once so that the view can be moved within it
+    this.upperScrollPane.validate();
+    this.centerOn(center);
+  }
+
+  /**
+   * Moves the view so that the given beat is in the middle of it, as far as the sheet allows.
+   */
+  private void centerOn(int beat) {
+    JViewport viewport = this.upperScrollPane.getViewport();
+    int x = this.editorPanel.getSheetLayout().x(beat) - viewport.getWidth() / 2;
+    x = Math.max(Math.min(x, viewport.getViewSize().width - viewport.getWidth()), 0);
     viewport.setViewPosition(new Point(x, viewport.getViewPosition().y));
-    // repaints the gui
-    this.frame.repaint();
+  }
+
+  /**
+   * Outlines the beats in view on the minimap.
+   */
+  private void showVisibleBeats() {
+    JViewport viewport = this.upperScrollPane.getViewport();
+    SheetLayout layout = this.editorPanel.getSheetLayout();
+    int x = viewport.getViewPosition().x;
+    this.minimap.setView(layout.beatAt(x), layout.beatAt(x + viewport.getWidth()));
+  }
+
+  /**
+   * Records the lowest pitch, number of rows, and length being shown, and lays the scrollable
+   * area out again for them.
+   */
+  private void relayout(int lowest, int rows, int length) {
+    this.shownLowest = lowest;
+    this.shownRows = rows;
+    this.shownLength = length;
+    this.editorPanel.revalidate();
+    this.measuresComponent.revalidate();
+    this.pitchesComponent.revalidate();
+  }
+
+  /**
+   * Moves the playhead to the given position in beats, turning the view to the page holding it
+   * if it has left the page being shown.
+   */
+  private void showPlayhead(double position) {
+    this.editorPanel.setPlayhead(position);
+    this.pianoPanel.setPlayhead(position);
+    JViewport viewport = this.upperScrollPane.getViewport();
+    int viewWidth = viewport.getWidth();
+    int x = this.editorPanel.getPlayheadX();
+    int viewX = viewport.getViewPosition().x;
+    SheetLayout layout = this.editorPanel.getSheetLayout();
+    int beatPerView = layout.beatAt(viewWidth);
+    if (beatPerView > 0 && (x < viewX || x >= viewX + viewWidth)) {
+      int beat = (int) position;
+      int page = beat - (beat % beatPerView);
+      viewport.setViewPosition(new Point(layout.x(page), viewport.getViewPosition().y));
+    }
+  }
+
+  @Override
+  public void setLoadProgress(double progress) {
+    this.loadBar.setValue((int) (progress * this.loadBar.getMaximum()));
+    this.loadBar.setString("Loading " + (int) (progress * 100) + "%");
+    this.loadBar.setVisible(progress < 1);
+  }
+
+  @Override
+  public void showLoadError(String message) {
+    this.loadBar.setVisible(false);
+    JOptionPane.showMessageDialog(this.frame, message, "Could not load composition",
+        JOptionPane.ERROR_MESSAGE);
   }
 }
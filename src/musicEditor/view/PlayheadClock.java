@@ -0,0 +1,80 @@
+package musicEditor.view;
+
+import musicEditor.music.MusicPlayer;
+
+import javax.swing.Timer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A display clock that moves the playhead smoothly while a MusicPlayer is playing.
+ * <p>Once a frame a Swing timer samples the beat of the player on the event dispatch thread and
+ * gives the position to a display, which can then ask for a single repaint of what moved. The
+ * player only reports whole beats, so the fraction of the beat is worked out from the time that
+ * has passed and the tempo. That estimate is kept for as long as it agrees with the beat the
+ * player reports, so the playhead neither jumps back nor runs ahead by a whole beat. The timer
+ * coalesces ticks that fall behind and stops itself once the player stops.</p>
+ */
+public class PlayheadClock {
+  /**
+   * The time between frames in milliseconds, about sixty frames a second.
+   */
+  public static final int FRAME_MILLIS = 16;
+
+  private final MusicPlayer player;
+  private final DoubleConsumer display;
+  private final Timer timer;
+  private boolean anchored;
+  private double anchorBeat;
+  private long anchorNanos;
+
+  /**
+   * Constructs a PlayheadClock that gives the position of the given player, in beats, to the
+   * given display.
+   * @param player the player being followed
+   * @param display the display given the position once a frame
+   */
+  public PlayheadClock(MusicPlayer player, DoubleConsumer display) {
+    this.player = player;
+    this.display = display;
+    this.timer = new Timer(FRAME_MILLIS, e -> this.tick());
+    this.timer.setCoalesce(true);
+    this.anchored = false;
+  }
+
+  /**
+   * Shows the position of the player at once, and keeps showing it once a frame while the player
+   * is playing. Should be called on the event dispatch thread whenever the player starts, stops,
+   * or moves.
+   */
+  public void sync() {
+    this.anchored = false;
+    this.tick();
+    if (this.player.isRunning()) {
+      this.timer.start();
+    }
+  }
+
+  /**
+   * Samples the player and gives its position to the display.
+   */
+  private void tick() {
+    long now = System.nanoTime();
+    int beat = this.player.getBeat();
+    if (!this.player.isRunning()) {
+      this.timer.stop();
+      this.anchored = false;
+      this.display.accept(beat);
+      return;
+    }
+    double nanosPerBeat = Math.max(this.player.getTempo(), 1) * 1000.0;
+    double position = this.anchorBeat + (now - this.anchorNanos) / nanosPerBeat;
+    if (!this.anchored || position < beat || position >= beat + 2) {
+      // the estimate no longer agrees with the player, so it starts again from the reported beat
+      this.anchorBeat = beat;
+      this.anchorNanos = now;
+      this.anchored = true;
+      position = beat;
+    }
+    this.display.accept(Math.min(position, beat + 1));
+  }
+}